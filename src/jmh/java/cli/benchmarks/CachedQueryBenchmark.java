@@ -0,0 +1,81 @@
+package cli.benchmarks;
+
+import cli.config.Config;
+import cli.config.GlobalLogger;
+import cli.core.enums.IndexStore;
+import cli.core.searchers.ISearcher;
+import cli.core.searchers.PipeStreamSearcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Latency of the queries an interactive or daemon session asks again, with and without the query cache: the
+ * same text, the same query in another case or spacing, and an expression. With the cache on, their first page
+ * of hits (ISearcher.PAGE_SIZE) comes from the cache and only the stored fields of the matches are loaded; the
+ * expression matches more than a page, the pages after the first are searched again either way. newQuery asks
+ * a query never asked before at each call, the cost of a miss (the lookup and the insertion on top of the search).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CachedQueryBenchmark {
+    private static final String[] RESPACED = {"zx abc qu", "ZX abc QU", "zx  abc   qu", " Zx Abc Qu "};
+
+    @Param({"100000", "1000000"})
+    int nDocs;
+
+    @Param({"false", "true"})
+    boolean searchCache;
+
+    ISearcher searcher;
+    int calls;
+
+    @Setup(Level.Trial)
+    public void buildIndex() {
+        GlobalLogger.turnOffLogging();
+
+        InputStream stdin = System.in;
+        System.setIn(new ByteArrayInputStream(SyntheticData.randomLines(nDocs, 42)));
+
+        try {
+            searcher = new PipeStreamSearcher(null, Config.builder()
+                    .indexStore(IndexStore.MEMORY)
+                    .searchCache(searchCache)
+                    .build());
+        } finally {
+            System.setIn(stdin);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        searcher.close();
+    }
+
+    @Benchmark
+    public String[] repeatedQuery() {
+        return searcher.getMatches("qzx");
+    }
+
+    @Benchmark
+    public String[] respacedQuery() {
+        return searcher.getMatches(RESPACED[calls++ % RESPACED.length]);
+    }
+
+    @Benchmark
+    public String[] repeatedExpression() {
+        return searcher.getLuceneQueryMatches("zx* AND abc AND qu*");
+    }
+
+    @Benchmark
+    public String[] newQuery() {
+        return searcher.getMatches("qz" + Integer.toString(calls++, 36));
+    }
+}
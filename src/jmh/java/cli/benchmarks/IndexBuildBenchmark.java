@@ -0,0 +1,74 @@
+package cli.benchmarks;
+
+import cli.config.Config;
+import cli.config.GlobalLogger;
+import cli.core.enums.IndexStore;
+import cli.core.searchers.FileContentSearcher;
+import cli.core.searchers.FileMetaSearcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Time to build the file name and the file content index over a generated tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexBuildBenchmark {
+    @Param({"2000"})
+    int nFiles;
+
+    @Param({"1", "4"})
+    int nThreads;
+
+    @Param({"DISK", "MEMORY"})
+    IndexStore indexStore;
+
+    Path tree;
+    Path indexDir;
+    Config config;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        GlobalLogger.turnOffLogging();
+
+        tree = SyntheticData.createTree(nFiles, 20, 42);
+        config = Config.builder()
+                .nThreads(nThreads)
+                .indexStore(indexStore)
+                .build();
+    }
+
+    @Setup(Level.Invocation)
+    public void createIndexDir() throws IOException {
+        indexDir = Files.createTempDirectory("lfind-bench-index");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteIndexDir() throws IOException {
+        SyntheticData.delete(indexDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        SyntheticData.delete(tree);
+    }
+
+    @Benchmark
+    public void buildFileMetaIndex() {
+        new FileMetaSearcher(indexDir, tree.toFile(), config).close();
+    }
+
+    @Benchmark
+    public void buildFileContentIndex() {
+        new FileContentSearcher(indexDir, tree.toFile(), null, config).close();
+    }
+}
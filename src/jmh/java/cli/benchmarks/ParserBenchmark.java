@@ -0,0 +1,66 @@
+package cli.benchmarks;
+
+import cli.config.GlobalLogger;
+import cli.core.parsers.DocFileParser;
+import cli.core.parsers.IParser;
+import cli.core.parsers.PdfFileParser;
+import cli.core.parsers.TextFileParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Documents parsed per second by each parser, on generated documents of comparable text size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+    Path dir;
+    File pdf;
+    File docx;
+    File text;
+
+    IParser pdfParser = new PdfFileParser();
+    IParser docParser = new DocFileParser();
+    IParser textParser = new TextFileParser();
+
+    @Setup(Level.Trial)
+    public void createDocuments() throws IOException {
+        GlobalLogger.turnOffLogging();
+
+        dir = Files.createTempDirectory("lfind-bench-parsers");
+        pdf = SyntheticData.createPdf(dir, 50, 40, 42).toFile();
+        docx = SyntheticData.createDocx(dir, 2000, 42).toFile();
+        text = SyntheticData.createTextFile(dir, 2000, 42).toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDocuments() throws IOException {
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public void pdf(Blackhole blackhole) {
+        pdfParser.readContent(pdf, blackhole::consume);
+    }
+
+    @Benchmark
+    public void doc(Blackhole blackhole) {
+        docParser.readContent(docx, blackhole::consume);
+    }
+
+    @Benchmark
+    public void text(Blackhole blackhole) {
+        textParser.readContent(text, blackhole::consume);
+    }
+}
@@ -0,0 +1,65 @@
+package cli.benchmarks;
+
+import cli.config.Config;
+import cli.config.GlobalLogger;
+import cli.core.enums.IndexStore;
+import cli.core.searchers.PipeStreamSearcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Lines of piped input indexed per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PipeIngestBenchmark {
+    private static final int N_LINES = 100_000;
+
+    @Param({"DISK", "MEMORY"})
+    IndexStore indexStore;
+
+    byte[] input;
+    InputStream stdin;
+    Path indexDir;
+
+    @Setup(Level.Trial)
+    public void createInput() {
+        GlobalLogger.turnOffLogging();
+
+        input = SyntheticData.randomLines(N_LINES, 42);
+        stdin = System.in;
+    }
+
+    @Setup(Level.Invocation)
+    public void resetInput() throws IOException {
+        System.setIn(new ByteArrayInputStream(input));
+        indexDir = Files.createTempDirectory("lfind-bench-index");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteIndexDir() throws IOException {
+        SyntheticData.delete(indexDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreInput() {
+        System.setIn(stdin);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_LINES)
+    public void ingest() {
+        new PipeStreamSearcher(indexDir, Config.builder().indexStore(indexStore).build()).close();
+    }
+}
@@ -0,0 +1,78 @@
+package cli.benchmarks;
+
+import cli.config.Config;
+import cli.config.GlobalLogger;
+import cli.core.enums.IndexStore;
+import cli.core.searchers.ISearcher;
+import cli.core.searchers.PipeStreamSearcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Latency of plain (substring) queries and of lucene expressions, by index size.
+ * The query parser rejects leading wildcards, so the expressions are the closest prefix equivalents.
+ * Each line of the generated input is one document. The same queries are asked again and again, so the query
+ * cache is off: every call parses and searches (see CachedQueryBenchmark for the cached path).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    int nDocs;
+
+    @Param({"false", "true"})
+    boolean suffixIndex;
+
+    ISearcher searcher;
+
+    @Setup(Level.Trial)
+    public void buildIndex() {
+        GlobalLogger.turnOffLogging();
+
+        InputStream stdin = System.in;
+        System.setIn(new ByteArrayInputStream(SyntheticData.randomLines(nDocs, 42)));
+
+        try {
+            searcher = new PipeStreamSearcher(null, Config.builder()
+                    .indexStore(IndexStore.MEMORY)
+                    .suffixIndex(suffixIndex)
+                    .searchCache(false)
+                    .build());
+        } finally {
+            System.setIn(stdin);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        searcher.close();
+    }
+
+    @Benchmark
+    public String[] substring() {
+        return searcher.getMatches("qzx");
+    }
+
+    @Benchmark
+    public String[] prefixExpression() {
+        return searcher.getLuceneQueryMatches("qzx*");
+    }
+
+    @Benchmark
+    public String[] multiTerm() {
+        return searcher.getMatches("zx abc qu");
+    }
+
+    @Benchmark
+    public String[] conjunctionExpression() {
+        return searcher.getLuceneQueryMatches("zx* AND abc AND qu*");
+    }
+}
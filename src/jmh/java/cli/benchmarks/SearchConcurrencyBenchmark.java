@@ -0,0 +1,73 @@
+package cli.benchmarks;
+
+import cli.config.Config;
+import cli.config.GlobalLogger;
+import cli.core.enums.IndexStore;
+import cli.core.searchers.ISearcher;
+import cli.core.searchers.PipeStreamSearcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Latency distribution (p50, p90, p99... in the JMH output) of queries by number of search threads, on an
+ * index big enough to have many segments. A substring query is a wildcard over the term dictionary of every
+ * segment, the cost that searching the slices concurrently spreads over the cores. The query cache is off, it
+ * would answer the repeated queries without searching.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchConcurrencyBenchmark {
+    @Param({"1000000"})
+    int nDocs;
+
+    @Param({"1", "2", "4", "8"})
+    int searchThreads;
+
+    ISearcher searcher;
+
+    @Setup(Level.Trial)
+    public void buildIndex() {
+        GlobalLogger.turnOffLogging();
+
+        InputStream stdin = System.in;
+        System.setIn(new ByteArrayInputStream(SyntheticData.randomLines(nDocs, 42)));
+
+        try {
+            searcher = new PipeStreamSearcher(null, Config.builder()
+                    .indexStore(IndexStore.MEMORY)
+                    .searchThreads(searchThreads)
+                    .searchCache(false)
+                    .build());
+        } finally {
+            System.setIn(stdin);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        searcher.close();
+    }
+
+    @Benchmark
+    public String[] substring() {
+        return searcher.getMatches("qzx");
+    }
+
+    @Benchmark
+    public String[] multiTerm() {
+        return searcher.getMatches("zx abc qu");
+    }
+
+    @Benchmark
+    public String[] prefixExpression() {
+        return searcher.getLuceneQueryMatches("qzx*");
+    }
+}
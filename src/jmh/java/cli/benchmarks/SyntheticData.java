@@ -0,0 +1,134 @@
+package cli.benchmarks;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+
+/**
+ * Reproducible inputs for the benchmarks: random lowercase words, so that the vocabulary (and the work a
+ * wildcard query has to do) grows with the size of the input like it does on real trees.
+ */
+public class SyntheticData {
+    private static final int WORDS_PER_LINE = 8;
+
+    public static String randomWord(Random random) {
+        int length = 3 + random.nextInt(8);
+        StringBuilder word = new StringBuilder(length);
+
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(26)));
+        }
+
+        return word.toString();
+    }
+
+    public static String randomLine(Random random) {
+        StringBuilder line = new StringBuilder();
+
+        for (int i = 0; i < WORDS_PER_LINE; i++) {
+            line.append(randomWord(random)).append(' ');
+        }
+
+        return line.toString();
+    }
+
+    public static byte[] randomLines(int nLines, long seed) {
+        Random random = new Random(seed);
+        StringBuilder lines = new StringBuilder();
+
+        for (int i = 0; i < nLines; i++) {
+            lines.append(randomLine(random)).append('\n');
+        }
+
+        return lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Directory tree of text files, 100 files per directory, each with linesPerFile random lines.
+     */
+    public static Path createTree(int nFiles, int linesPerFile, long seed) throws IOException {
+        Path root = Files.createTempDirectory("lfind-bench-tree");
+        Random random = new Random(seed);
+
+        for (int i = 0; i < nFiles; i++) {
+            Path dir = root.resolve("dir" + (i / 100));
+            Files.createDirectories(dir);
+
+            StringBuilder content = new StringBuilder();
+            for (int line = 0; line < linesPerFile; line++) {
+                content.append(randomLine(random)).append('\n');
+            }
+
+            Files.writeString(dir.resolve(randomWord(random) + "_" + i + ".txt"), content);
+        }
+
+        return root;
+    }
+
+    public static Path createTextFile(Path dir, int nLines, long seed) throws IOException {
+        Path file = dir.resolve("sample.txt");
+        Files.write(file, randomLines(nLines, seed));
+        return file;
+    }
+
+    public static Path createPdf(Path dir, int nPages, int linesPerPage, long seed) throws IOException {
+        Path file = dir.resolve("sample.pdf");
+        Random random = new Random(seed);
+        PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+
+        try (PDDocument document = new PDDocument()) {
+            for (int p = 0; p < nPages; p++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+
+                try (PDPageContentStream stream = new PDPageContentStream(document, page)) {
+                    stream.beginText();
+                    stream.setFont(font, 10);
+                    stream.setLeading(12);
+                    stream.newLineAtOffset(40, 750);
+
+                    for (int line = 0; line < linesPerPage; line++) {
+                        stream.showText(randomLine(random));
+                        stream.newLine();
+                    }
+
+                    stream.endText();
+                }
+            }
+
+            document.save(file.toFile());
+        }
+
+        return file;
+    }
+
+    public static Path createDocx(Path dir, int nParagraphs, long seed) throws IOException {
+        Path file = dir.resolve("sample.docx");
+        Random random = new Random(seed);
+
+        try (XWPFDocument document = new XWPFDocument(); OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < nParagraphs; i++) {
+                document.createParagraph().createRun().setText(randomLine(random));
+            }
+
+            document.write(out);
+        }
+
+        return file;
+    }
+
+    public static void delete(Path dir) throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(dir.toFile());
+    }
+}
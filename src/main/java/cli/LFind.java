@@ -1,6 +1,15 @@
 package cli;
 
 
+import cli.config.Config;
+import cli.core.enums.IndexStore;
+import cli.core.enums.SearchTarget;
+import cli.core.indexers.IndexWriterSettings;
+import cli.core.queries.MetadataFilter;
+import cli.daemon.DaemonClient;
+import cli.daemon.DaemonProtocol;
+import cli.daemon.DaemonToken;
+import cli.daemon.SearchDaemon;
 import cli.enums.SearchMode;
 import cli.utils.FileUtils;
 import cli.utils.PrettyPrint;
@@ -8,18 +17,23 @@ import cli.config.GlobalLogger;
 import cli.core.searchers.FileContentSearcher;
 import cli.core.searchers.FileMetaSearcher;
 import cli.core.searchers.ISearcher;
+import cli.core.searchers.PipeStreamGrep;
 import cli.core.searchers.PipeStreamSearcher;
 import lombok.Getter;
 import lombok.Setter;
+import org.apache.lucene.search.ScoreDoc;
 import picocli.CommandLine;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.TreeSet;
 
 import static cli.config.GlobalLogger.log;
+import static cli.metrics.Metrics.metrics;
 
 
 // Features
@@ -40,8 +54,14 @@ public class LFind implements Runnable {
     @CommandLine.Option(names = {"-c", "--content"}, description = "Search content of files")
     boolean contentMode;
 
-//    @CommandLine.Option(names = {"-m"}, description = "In memory search")
-//    boolean inMemory;
+    @CommandLine.Option(names = {"-a", "--all"}, description = "Index names, paths and content in one walk: queries search the names (the content with -c), a 'name:', 'path:' or 'content:' prefix picks another target")
+    boolean combined;
+
+    @CommandLine.Option(names = {"--in-memory"}, description = "Keep the index in memory instead of a temporary directory")
+    boolean inMemory;
+
+    @CommandLine.Option(names = {"--mmap"}, description = "Open the index with memory mapped files, for large persistent indexes")
+    boolean mmap;
 
     File directory;
 
@@ -58,9 +78,187 @@ public class LFind implements Runnable {
     @CommandLine.Option(names = {"-e", "--expression"}, description = "Lucene query expression")
     boolean luceneQuery;
 
+    @CommandLine.Option(names = {"-n", "--lines"}, description = "Content search: also index every line (PDF page, document part) to show the matching ones under each file")
+    boolean lines;
+
+    @CommandLine.Option(names = {"-z", "--archives"}, description = "Content search: also search the files inside zip, jar, tar(.gz, .bz2) and gz archives")
+    boolean archives;
+
+    @CommandLine.Option(names = {"--collapse-duplicates"}, description = "Content search: show files with the same content as one match listing their copies")
+    boolean collapseDuplicates;
+
+    @CommandLine.Option(names = {"-r", "--regex"}, description = "Queries are regular expressions (java.util.regex), matched within a file name, line or page")
+    boolean regex;
+
     @CommandLine.Parameters(paramLabel = "QUERY", description = "Query to search")
     String[] queries;
 
+    @CommandLine.Option(names = {"--persist"}, description = "Keep the index in the cache directory and only update changed files on later runs")
+    boolean persist;
+
+    @CommandLine.Option(names = {"--cache-dir"}, description = "Directory holding the persistent indexes (default: ~/.lfind/indexes)")
+    File cacheDir;
+
+    @CommandLine.Option(names = {"-s", "--suffix-index"}, description = "Index token suffixes so that substring queries avoid wildcard scans (bigger index, faster queries)")
+    boolean suffixIndex;
+
+    @CommandLine.Option(names = {"--daemon"}, description = "Build the index once and serve queries on a loopback port until stopped, to the clients that can read its token file in the cache directory")
+    boolean daemon;
+
+    @CommandLine.Option(names = {"--client"}, description = "Send the queries to a running daemon instead of indexing")
+    boolean client;
+
+    @CommandLine.Option(names = {"--port"}, description = "Loopback port of the daemon (default: " + DaemonProtocol.DEFAULT_PORT + ")")
+    int port = DaemonProtocol.DEFAULT_PORT;
+
+    @CommandLine.Option(names = {"-w", "--watch"}, description = "Keep the index in sync with file system changes (interactive and daemon mode)")
+    boolean watch;
+
+    @CommandLine.Option(names = {"-l", "--limit"}, description = "Maximum number of matches printed per query, one page in interactive mode (default: all)")
+    Integer limit;
+
+    @CommandLine.Option(names = {"--page"}, description = "Page of matches to print, pages are '--limit' matches long (default: 1)")
+    int page = 1;
+
+    @CommandLine.Option(names = {"-x", "--exclude"}, description = "Skip paths matching the pattern (.gitignore syntax, e.g. '*.log' or 'build/'), can be repeated")
+    String[] excludes;
+
+    @CommandLine.Option(names = {"--no-ignore"}, description = "Do not skip the paths excluded by .gitignore and .ignore files")
+    boolean noIgnore;
+
+    @CommandLine.Option(names = {"--no-query-cache"}, description = "Parse and search every query again, even one asked before (interactive and daemon mode)")
+    boolean noQueryCache;
+
+    @CommandLine.Option(names = {"--follow-symlinks"}, description = "Descend into linked directories")
+    boolean followSymlinks;
+
+    @CommandLine.Option(names = {"--stats"}, description = "Print phase timings, file counters, query latencies and peak heap as JSON to stderr at exit")
+    boolean stats;
+
+    @CommandLine.Option(names = {"--ext"}, description = "Only match files with these extensions (comma-separated, e.g. pdf,docx)", split = ",")
+    String[] extensions;
+
+    int maxDepth = Integer.MAX_VALUE;
+
+    Integer archiveDepth;
+
+    // metadata filters and order of the matches, none when not given
+    long[] sizeRange;
+    Long newerThan;
+    String sort;
+
+    // per-file parse limits, defaults of the config when not given
+    Long maxFileMegabytes;
+    Long maxChars;
+    Long parseTimeoutSeconds;
+
+    int nThreads = Runtime.getRuntime().availableProcessors();
+
+    int nSearchThreads = Runtime.getRuntime().availableProcessors();
+
+    int indexRamMB = IndexWriterSettings.DEFAULT_RAM_BUFFER_MB;
+
+    // interactive mode: last query and the hit its next page starts after
+    String pagedQuery;
+    ScoreDoc pageCursor;
+    int pageNextRank;
+
+    // combined index: what the queries without a prefix search, switched in interactive mode
+    SearchTarget target;
+
+    @CommandLine.Option(names = {"-t", "--threads"}, description = "Number of threads used to parse files while indexing content (default: number of cores)")
+    public void setThreads(int value) {
+        if(value < 1)
+            throw new CommandLine.ParameterException(spec.commandLine(), String.format("Invalid value '%d' for option '--threads'. Must be at least 1", value));
+
+        nThreads = value;
+    }
+
+    @CommandLine.Option(names = {"--search-threads"}, description = "Number of threads searching the segments of the index concurrently, 1 to search on a single thread (default: number of cores)")
+    public void setSearchThreads(int value) {
+        if(value < 1)
+            throw new CommandLine.ParameterException(spec.commandLine(), String.format("Invalid value '%d' for option '--search-threads'. Must be at least 1", value));
+
+        nSearchThreads = value;
+    }
+
+    @CommandLine.Option(names = {"--index-ram-mb"}, description = "Megabytes of documents buffered in memory before a segment is written while indexing (default: " + IndexWriterSettings.DEFAULT_RAM_BUFFER_MB + ")")
+    public void setIndexRamMB(int value) {
+        if(value < 1)
+            throw new CommandLine.ParameterException(spec.commandLine(), String.format("Invalid value '%d' for option '--index-ram-mb'. Must be at least 1", value));
+
+        indexRamMB = value;
+    }
+
+
+    @CommandLine.Option(names = {"-d", "--max-depth"}, description = "Levels of directories below the path to descend into (default: no limit)")
+    public void setMaxDepth(int value) {
+        if(value < 0)
+            throw new CommandLine.ParameterException(spec.commandLine(), String.format("Invalid value '%d' for option '--max-depth'. Must be at least 0", value));
+
+        maxDepth = value;
+    }
+
+    @CommandLine.Option(names = {"--archive-depth"}, description = "Levels of archives opened with '--archives', the ones inside archives included (default: 2)")
+    public void setArchiveDepth(int value) {
+        if(value < 1)
+            throw new CommandLine.ParameterException(spec.commandLine(), String.format("Invalid value '%d' for option '--archive-depth'. Must be at least 1", value));
+
+        archiveDepth = value;
+    }
+
+    @CommandLine.Option(names = {"--max-file-size"}, description = "Content search: skip files bigger than this many megabytes (default: 100)")
+    public void setMaxFileSize(long value) {
+        if(value < 1)
+            throw new CommandLine.ParameterException(spec.commandLine(), String.format("Invalid value '%d' for option '--max-file-size'. Must be at least 1", value));
+
+        maxFileMegabytes = value;
+    }
+
+    @CommandLine.Option(names = {"--max-chars"}, description = "Content search: truncate the text extracted from a file after this many characters (default: 10000000)")
+    public void setMaxChars(long value) {
+        if(value < 1)
+            throw new CommandLine.ParameterException(spec.commandLine(), String.format("Invalid value '%d' for option '--max-chars'. Must be at least 1", value));
+
+        maxChars = value;
+    }
+
+    @CommandLine.Option(names = {"--parse-timeout"}, description = "Content search: skip files taking longer than this many seconds to parse (default: 60)")
+    public void setParseTimeout(long value) {
+        if(value < 1)
+            throw new CommandLine.ParameterException(spec.commandLine(), String.format("Invalid value '%d' for option '--parse-timeout'. Must be at least 1", value));
+
+        parseTimeoutSeconds = value;
+    }
+
+    @CommandLine.Option(names = {"--size"}, description = "Only match files of this size in bytes, K, M, G or T: +N bigger, -N smaller, N..M between (e.g. +10M)")
+    public void setSize(String value) {
+        try {
+            sizeRange = MetadataFilter.parseSizeRange(value);
+        } catch (IllegalArgumentException e) {
+            throw new CommandLine.ParameterException(spec.commandLine(), String.format("Invalid value '%s' for option '--size'. %s", value, e.getMessage()));
+        }
+    }
+
+    @CommandLine.Option(names = {"--newer"}, description = "Only match files modified within an age (e.g. 30m, 12h, 7d, 2w) or since a date (e.g. 2024-05-01)")
+    public void setNewer(String value) {
+        try {
+            newerThan = MetadataFilter.parseNewer(value, System.currentTimeMillis());
+        } catch (IllegalArgumentException e) {
+            throw new CommandLine.ParameterException(spec.commandLine(), String.format("Invalid value '%s' for option '--newer'. %s", value, e.getMessage()));
+        }
+    }
+
+    @CommandLine.Option(names = {"--sort"}, description = "Order the matches by size, modified, ext, dir or depth instead of relevance, ':desc' for descending (e.g. size:desc)")
+    public void setSort(String value) {
+        try {
+            MetadataFilter.parseSort(value);
+        } catch (IllegalArgumentException e) {
+            throw new CommandLine.ParameterException(spec.commandLine(), String.format("Invalid value '%s' for option '--sort'. %s", value, e.getMessage()));
+        }
+
+        sort = value;
+    }
 
     @CommandLine.Option(names = {"-p", "--path"}, description = "The path to begin search from", defaultValue = ".")
     public void setDirectory(String value) {
@@ -84,9 +282,22 @@ public class LFind implements Runnable {
         log.info("Running with the following args:");
         log.info("types: " + (mimeTypes == null? null: Arrays.asList(mimeTypes)));
         log.info("path: " + directory.getAbsolutePath());
-        log.info("content-mode: " + contentMode);
+        log.info("content-mode: " + contentMode + " | all: " + combined);
 //        log.info("help-mode: " + helpMode);
         log.info("verbose-mode: " + verbose);
+        log.info("threads: " + nThreads + " | search-threads: " + nSearchThreads + " | index-ram-mb: " + indexRamMB);
+        log.info("persist: " + persist);
+        log.info("suffix-index: " + suffixIndex + " | regex: " + regex + " | lines: " + lines + " | collapse-duplicates: " + collapseDuplicates);
+        log.info("archives: " + archives + " | archive-depth: " + archiveDepth);
+        log.info("daemon: " + daemon + " | port: " + port);
+        log.info("watch: " + watch + " | no-query-cache: " + noQueryCache);
+        log.info("index-store: " + getIndexStore());
+        log.info("limit: " + limit + " | page: " + page);
+        log.info("excludes: " + (excludes == null? null: Arrays.asList(excludes)) + " | no-ignore: " + noIgnore);
+        log.info("max-depth: " + maxDepth + " | follow-symlinks: " + followSymlinks + " | stats: " + stats);
+        log.info("size: " + (sizeRange == null? null: Arrays.toString(sizeRange)) + " | newer: " + newerThan
+                + " | ext: " + (extensions == null? null: Arrays.asList(extensions)) + " | sort: " + sort);
+        log.info("max-file-size: " + maxFileMegabytes + " | max-chars: " + maxChars + " | parse-timeout: " + parseTimeoutSeconds);
         log.info("query: " + (queries == null? null: Arrays.asList(queries)));
         log.info("");
     }
@@ -96,10 +307,85 @@ public class LFind implements Runnable {
         // can be replaced by using groups
         // throws exception if the combination is invalid
 
+        if(daemon && client)
+            throw new CommandLine.ParameterException(spec.commandLine(), "Options '--daemon' and '--client' are mutually exclusive");
+
+        if(regex && luceneQuery)
+            throw new CommandLine.ParameterException(spec.commandLine(), "Options '--regex' and '--expression' are mutually exclusive");
+
+        if(client) {
+            if(regex)
+                throw new CommandLine.ParameterException(spec.commandLine(), "Option '--regex' is given to the daemon, its plain queries are then regexes");
+
+            if(hasMetadataFilters())
+                throw new CommandLine.ParameterException(spec.commandLine(), "Options '--size', '--newer', '--ext' and '--sort' are given to the daemon");
+
+            if(stats)
+                throw new CommandLine.ParameterException(spec.commandLine(), "Option '--stats' is given to the daemon, it prints them when stopped");
+
+            if(combined)
+                throw new CommandLine.ParameterException(spec.commandLine(), "Option '--all' is given to the daemon, prefix the queries with 'name:', 'path:' or 'content:'");
+
+            // the protocol has no paging, the daemon answers with every match
+            if(limit != null || page != 1)
+                throw new CommandLine.ParameterException(spec.commandLine(), "Options '--limit' and '--page' are not supported with '--client', the daemon prints every match");
+
+            if(isInteractive())
+                throw new CommandLine.ParameterException(spec.commandLine(), "Option '--client' requires at least one query");
+            return;
+        }
+
+        if(daemon && !isInteractive())
+            throw new CommandLine.ParameterException(spec.commandLine(), "Queries are not accepted in daemon mode, send them with '--client'");
+
+        if(daemon && getSearchMode().equals(SearchMode.PIPED_INPUT))
+            throw new CommandLine.ParameterException(spec.commandLine(), "Piped input search in daemon mode is not supported");
+
+        if(limit != null && limit < 1)
+            throw new CommandLine.ParameterException(spec.commandLine(), String.format("Invalid value '%d' for option '--limit'. Must be at least 1", limit));
+
+        if(page < 1)
+            throw new CommandLine.ParameterException(spec.commandLine(), String.format("Invalid value '%d' for option '--page'. Must be at least 1", page));
+
+        if(page > 1 && (limit == null || isInteractive()))
+            throw new CommandLine.ParameterException(spec.commandLine(), "Option '--page' requires '--limit' and a query");
+
+        if(inMemory && (mmap || persist))
+            throw new CommandLine.ParameterException(spec.commandLine(), "Option '--in-memory' cannot be combined with '--mmap' or '--persist'");
+
+        if(combined && getSearchMode().equals(SearchMode.PIPED_INPUT))
+            throw new CommandLine.ParameterException(spec.commandLine(), "Option '--all' is not supported for piped input");
+
+        if(lines && !indexesContent())
+            throw new CommandLine.ParameterException(spec.commandLine(), "Option '--lines' is only supported in content search mode");
+
+        if((archives || archiveDepth != null) && !indexesContent())
+            throw new CommandLine.ParameterException(spec.commandLine(), "Option '--archives' is only supported in content search mode");
+
+        if(archiveDepth != null && !archives)
+            throw new CommandLine.ParameterException(spec.commandLine(), "Option '--archive-depth' requires '--archives'");
+
+        if(collapseDuplicates && !indexesContent())
+            throw new CommandLine.ParameterException(spec.commandLine(), "Option '--collapse-duplicates' is only supported in content search mode");
+
+        if(hasMetadataFilters() && getSearchMode().equals(SearchMode.PIPED_INPUT))
+            throw new CommandLine.ParameterException(spec.commandLine(), "Options '--size', '--newer', '--ext' and '--sort' are not supported for piped input");
+
+        if(watch && !isInteractive())
+            throw new CommandLine.ParameterException(spec.commandLine(), "Option '--watch' is only supported in interactive and daemon mode");
+
         if(isInteractive() && getSearchMode().equals(SearchMode.PIPED_INPUT))
             throw new CommandLine.ParameterException(spec.commandLine(), String.format("Piped input search in interactive mode is not supported"));
     }
 
+    private boolean indexesContent() {
+        return getSearchMode().equals(SearchMode.FILE_CONTENT) || getSearchMode().equals(SearchMode.COMBINED);
+    }
+
+    private boolean hasMetadataFilters() {
+        return sizeRange != null || newerThan != null || extensions != null || sort != null;
+    }
+
     private boolean hasPipedInput() {
         try {
             return System.in.available() > 0;
@@ -117,20 +403,155 @@ public class LFind implements Runnable {
         argsValidityCheck();
         checkVerbosity();
 
+        if(client) {
+            // no index on this side, the daemon answers
+            runClient();
+            return;
+        }
+
         // TODO remove this
         printArgs();
 
-        Path indexDir = FileUtils.createTempDirectory();
+        // readable over JMX in the modes that run long enough to attach to, starting the MBean server costs
+        // more than a one-off query
+        if(isInteractive())
+            metrics.register();
+
+        if(isStreamingPipeSearch()) {
+            // a single plain query over piped input needs no index
+            runStreamingPipeSearch();
+            printStats();
+            return;
+        }
+
+        Path indexDir = isPersistent()? getPersistentIndexDirectory()
+                : getIndexStore().needsDirectory()? FileUtils.createTempDirectory()
+                : null;
         ISearcher searcher = buildSearcher(indexDir);
         log.info("Searcher initialized");
 
+        if(daemon) {
+            runDaemon(searcher, indexDir);
+            return;
+        }
+
         if(isInteractive())
             runInteractiveMode(searcher);
         else
             processQueries(searcher);
 
         searcher.close();
-        cleanUp(indexDir);
+
+        if(!isPersistent() && indexDir != null)
+            cleanUp(indexDir);
+
+        printStats();
+    }
+
+    // stderr, so that it can be told apart from the matches
+    private void printStats() {
+        if(stats)
+            System.err.println(metrics.getJson());
+    }
+
+    private IndexStore getIndexStore() {
+        return inMemory? IndexStore.MEMORY: mmap? IndexStore.MMAP: IndexStore.DISK;
+    }
+
+    private boolean isStreamingPipeSearch() {
+        return getSearchMode().equals(SearchMode.PIPED_INPUT) && queries.length == 1 && !luceneQuery && !suffixIndex;
+    }
+
+    private void runStreamingPipeSearch() {
+        log.info("Search Mode: " + SearchMode.PIPED_INPUT + " (streaming, no index)");
+
+        final String query = queries[0];
+        long offset = (long) (page - 1) * getLimit();
+        PrettyPrint.MatchPrinter printer = new PrettyPrint.MatchPrinter(System.out, query, (int) offset + 1);
+
+        try {
+            new PipeStreamGrep(query, regex).run(offset, getLimit(), printer);
+            printer.printStreamedCount();
+        } catch (Exception e) {
+            printer.printError();
+
+            Arrays.stream(e.getStackTrace()).forEach(st -> log.info(st.toString()));
+        }
+
+        printer.printEnd();
+    }
+
+    private void runClient() {
+        try {
+            new DaemonClient(port, getDaemonTokenFile()).send(queries, luceneQuery);
+        } catch (IOException e) {
+            System.out.println("Could not reach the lfind daemon on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    private void runDaemon(ISearcher searcher, Path indexDir) {
+        SearchDaemon searchDaemon = new SearchDaemon(searcher, port, getDaemonTokenFile());
+
+        // the daemon only stops on a signal, release the index from a shutdown hook
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            searchDaemon.removeToken();
+            searcher.close();
+
+            if(!isPersistent() && indexDir != null)
+                cleanUp(indexDir);
+
+            printStats();
+        }));
+
+        try {
+            searchDaemon.serve();
+        } catch (IOException e) {
+            System.out.println("Daemon failed: " + e.getMessage());
+            Arrays.stream(e.getStackTrace()).forEach(st -> log.severe(st.toString()));
+        }
+    }
+
+    private boolean isPersistent() {
+        // piped input is never the same twice, so it always gets a throwaway index
+        return persist && !getSearchMode().equals(SearchMode.PIPED_INPUT);
+    }
+
+    private Path getPersistentIndexDirectory() {
+        // one index per root path, search mode, index layout, mime type filter and set of walked files
+        String key = String.join("|",
+                directory.getAbsolutePath(),
+                getSearchMode().name(),
+                // indexes from before the metadata fields lack their points and doc values
+                "fields=2",
+                suffixIndex? "suffix": "",
+                regex? "trigram": "",
+                lines? "lines": "",
+                collapseDuplicates? "hashes": "",
+                archives? "archives" + (archiveDepth == null? "": "=" + archiveDepth): "",
+                mimeTypes == null? "": String.join(",", new TreeSet<>(Arrays.asList(mimeTypes))),
+                excludes == null? "": String.join(",", new TreeSet<>(Arrays.asList(excludes))),
+                noIgnore? "no-ignore": "",
+                maxDepth == Integer.MAX_VALUE? "": String.valueOf(maxDepth),
+                followSymlinks? "follow-symlinks": "",
+                // the parse limits decide what an unchanged file has in the index
+                maxFileMegabytes == null? "": "max-file-size=" + maxFileMegabytes,
+                maxChars == null? "": "max-chars=" + maxChars,
+                parseTimeoutSeconds == null? "": "parse-timeout=" + parseTimeoutSeconds);
+
+        return FileUtils.createPersistentIndexDirectory(getCacheRoot(), key);
+    }
+
+    private Path getCacheRoot() {
+        return cacheDir == null? FileUtils.getDefaultCacheDirectory(): cacheDir.toPath();
+    }
+
+    private Path getDaemonTokenFile() {
+        return DaemonToken.fileFor(getCacheRoot(), port);
+    }
+
+    // shared by the persistent indexes, the texts are found by content
+    private Path getExtractionCacheDirectory() {
+        return isPersistent()? getCacheRoot().resolve("extracts"): null;
     }
 
     private void checkVerbosity() {
@@ -150,20 +571,64 @@ public class LFind implements Runnable {
         switch (searchMode) {
             case FILE_METADATA:
                 // file metadata
-                searcher = new FileMetaSearcher(indexDir, directory);
+                searcher = new FileMetaSearcher(indexDir, directory, buildConfig());
                 break;
             case FILE_CONTENT:
-                // file content
-                searcher = new FileContentSearcher(indexDir, directory, mimeTypes);
+            case COMBINED:
+                // file content, and the names along with it in the combined index
+                searcher = new FileContentSearcher(indexDir, directory, mimeTypes, buildConfig());
                 break;
             default:
                 // piped input
-                searcher = new PipeStreamSearcher(indexDir);
+                searcher = new PipeStreamSearcher(indexDir, buildConfig());
         }
 
         return searcher;
     }
 
+    private Config buildConfig() {
+        Config.ConfigBuilder config = Config.builder();
+
+        if(maxFileMegabytes != null)
+            config.maxFileBytes(maxFileMegabytes << 20);
+        if(maxChars != null)
+            config.maxChars(maxChars);
+        if(parseTimeoutSeconds != null)
+            config.parseTimeoutMillis(parseTimeoutSeconds * 1000);
+        if(archiveDepth != null)
+            config.maxArchiveDepth(archiveDepth);
+        if(sizeRange != null)
+            config.minSize(sizeRange[0]).maxSize(sizeRange[1]);
+        if(newerThan != null)
+            config.newerThan(newerThan);
+
+        return config
+                .nThreads(nThreads)
+                .searchThreads(nSearchThreads)
+                .indexRamBufferMB(indexRamMB)
+                .incremental(isPersistent())
+                .suffixIndex(suffixIndex)
+                .regex(regex)
+                .lines(lines)
+                .combined(combined)
+                .target(getTarget())
+                // the daemon prints into sockets
+                .highlight(!daemon && System.console() != null)
+                .watch(watch)
+                .searchCache(!noQueryCache)
+                .indexStore(getIndexStore())
+                .readIgnoreFiles(!noIgnore)
+                .excludes(excludes == null? List.of(): Arrays.asList(excludes))
+                .maxDepth(maxDepth)
+                .followSymlinks(followSymlinks)
+                .extractionCacheDir(getExtractionCacheDirectory())
+                .collapseDuplicates(collapseDuplicates)
+                .archives(archives)
+                .extensions(extensions == null? List.of(): Arrays.asList(extensions))
+                .sort(sort)
+                .build();
+    }
+
     private void processQueries(ISearcher searcher) {
         log.info("Processing queries...");
         // TODO
@@ -174,20 +639,69 @@ public class LFind implements Runnable {
     }
 
     private void processQuery(ISearcher searcher, String query) {
-        String[] matches;
+        long offset = (long) (page - 1) * getLimit();
+
+        processQuery(searcher, query, null, offset, (int) offset + 1);
+    }
+
+    // prints one page of matches, returns the hit to continue from or null if there is nothing left
+    private ScoreDoc processQuery(ISearcher searcher, String query, ScoreDoc after, long offset, int firstRank) {
+        PrettyPrint.MatchPrinter printer = new PrettyPrint.MatchPrinter(System.out, query, firstRank);
+        ScoreDoc last;
+
         try {
-            matches = luceneQuery? searcher.getLuceneQueryMatches(query) :  searcher.getMatches(query);
+            last = searcher.streamMatches(query, luceneQuery, after, offset, getLimit(), printer);
         } catch (Exception e) {
-            matches = null;
+            last = null;
+            printer.printError(e);
 
             Arrays.stream(e.getStackTrace()).forEach(st -> log.info(st.toString()));
         }
 
-        PrettyPrint.printMatches(query, matches);
+        printer.printEnd();
+
+        return last != null && printer.hasMore()? last: null;
+    }
+
+    private int getLimit() {
+        return limit == null? Integer.MAX_VALUE: limit;
+    }
+
+    private void processPagedQuery(ISearcher searcher, String query) {
+        pagedQuery = query;
+        pageCursor = processQuery(searcher, query, null, 0, 1);
+        pageNextRank = 1 + getLimit();
+
+        if(pageCursor != null)
+            System.out.println("Enter \\n for the next page");
+    }
+
+    private void processNextPage(ISearcher searcher) {
+        if(pageCursor == null) {
+            System.out.println("No more matches.");
+            return;
+        }
+
+        // continue after the last hit shown instead of collecting all the previous pages again
+        pageCursor = processQuery(searcher, pagedQuery, pageCursor, 0, pageNextRank);
+        pageNextRank += getLimit();
+
+        if(pageCursor != null)
+            System.out.println("Enter \\n for the next page");
+    }
+
+    private SearchTarget getTarget() {
+        if(target == null)
+            target = contentMode? SearchTarget.CONTENT: SearchTarget.NAME;
+
+        return target;
     }
 
     private SearchMode getSearchMode() {
-        return hasPipedInput()? SearchMode.PIPED_INPUT: contentMode? SearchMode.FILE_CONTENT: SearchMode.FILE_METADATA;
+        return hasPipedInput()? SearchMode.PIPED_INPUT
+                : combined? SearchMode.COMBINED
+                : contentMode? SearchMode.FILE_CONTENT
+                : SearchMode.FILE_METADATA;
     }
 
     private void cleanUp(Path indexDir) {
@@ -201,6 +715,26 @@ public class LFind implements Runnable {
         }
     }
 
+    // the same index, no need to build another one
+    private boolean switchTarget(ISearcher searcher, String command) {
+        for (SearchTarget searchTarget : SearchTarget.values()) {
+            if(!searchTarget.getField().equalsIgnoreCase(command))
+                continue;
+
+            if(!combined) {
+                System.out.println("Only the combined index ('--all') has several targets");
+                return true;
+            }
+
+            searcher.setTarget(searchTarget);
+            target = searchTarget;
+            log.info("Interactive: target " + searchTarget);
+            return true;
+        }
+
+        return false;
+    }
+
     private void runInteractiveMode(ISearcher searcher) {
         try {
             Scanner scanner = new Scanner(System.in);
@@ -208,7 +742,8 @@ public class LFind implements Runnable {
             System.out.println("Interactive mode. Enter '\\q' to quit.");
 
             while (true) {
-                System.out.print("query> ");
+                // the combined index tells what is searched
+                System.out.print(combined? getTarget().getField() + "> ": "query> ");
                 String input = scanner.nextLine().trim();
 
                 // Check for exit condition
@@ -217,14 +752,22 @@ public class LFind implements Runnable {
                     break;
                 } else if("\\h".equalsIgnoreCase(input)) {
                     log.info("Interactive: help mode");
-                    System.out.println("Enter a query to search | \\q for quit | \\h for help");
+                    System.out.println("Enter a query to search | \\n for the next page of matches | \\q for quit | \\h for help");
+
+                    if(combined)
+                        System.out.println("\\name, \\path or \\content to search another target | a 'name:', 'path:' or 'content:' prefix for a single query");
+                    continue;
+                } else if("\\n".equalsIgnoreCase(input)) {
+                    processNextPage(searcher);
+                    continue;
+                } else if(input.startsWith("\\") && switchTarget(searcher, input.substring(1))) {
                     continue;
                 }
 
                 // Parse and execute the command
                 String query = input.trim();
 
-                processQuery(searcher, query);
+                processPagedQuery(searcher, query);
             }
         } catch (Exception e) {
             System.out.println("Error Occured. Exiting...");
@@ -1,7 +1,119 @@
 package cli.config;
 
+import cli.core.enums.IndexStore;
+import cli.core.enums.SearchTarget;
+import cli.core.indexers.IndexWriterSettings;
+import lombok.Builder;
+import lombok.Getter;
 
+import java.nio.file.Path;
+import java.util.List;
 
+
+// options shared by the searchers; built once by LFind from the command line args
+@Getter
+@Builder
 public class Config {
+    // number of parse workers used while building a content index
+    @Builder.Default
+    private final int nThreads = Runtime.getRuntime().availableProcessors();
+
+    // number of threads searching the segments of the index concurrently, 1 to search on the calling thread
+    @Builder.Default
+    private final int searchThreads = Runtime.getRuntime().availableProcessors();
+
+    // RAM buffered by the index writer before it flushes a segment
+    @Builder.Default
+    private final int indexRamBufferMB = IndexWriterSettings.DEFAULT_RAM_BUFFER_MB;
+
+    // the index is persistent: reuse it and only index files that were added or changed since the last run
+    private final boolean incremental;
+
+    // index every suffix of every token so that substring queries are prefix lookups instead of wildcard scans
+    private final boolean suffixIndex;
+
+    // plain queries are regexes: index character trigrams to find the candidates to verify
+    private final boolean regex;
+
+    // content: also index every line (page, paragraph) on its own, to show where a file matched
+    private final boolean lines;
+
+    // content: index the names and paths of files and directories too, one index for both kinds of search
+    private final boolean combined;
+
+    // combined: what a query without a prefix searches
+    @Builder.Default
+    private final SearchTarget target = SearchTarget.CONTENT;
+
+    // interactive and daemon: keep the compiled queries and first hits of the queries asked again
+    @Builder.Default
+    private final boolean searchCache = true;
+
+    // mark the matching parts of the lines with terminal colors
+    private final boolean highlight;
+
+    // keep the index in sync with the file system while the searcher is open
+    private final boolean watch;
+
+    // where the index lives
+    @Builder.Default
+    private final IndexStore indexStore = IndexStore.DISK;
+
+    // walk: skip what .gitignore / .ignore files exclude
+    @Builder.Default
+    private final boolean readIgnoreFiles = true;
+
+    // walk: extra patterns to skip, in .gitignore syntax
+    @Builder.Default
+    private final List<String> excludes = List.of();
+
+    // walk: levels below the root directory to descend into
+    @Builder.Default
+    private final int maxDepth = Integer.MAX_VALUE;
+
+    // walk: descend into linked directories
+    private final boolean followSymlinks;
+
+    // filter: size range of the matches, inclusive
+    @Builder.Default
+    private final long minSize = Long.MIN_VALUE;
+
+    @Builder.Default
+    private final long maxSize = Long.MAX_VALUE;
+
+    // filter: matches modified at or after this time (millis)
+    @Builder.Default
+    private final long newerThan = Long.MIN_VALUE;
+
+    // filter: extensions of the matches, any if empty
+    @Builder.Default
+    private final List<String> extensions = List.of();
+
+    // matches ordered by a metadata field (e.g. "size:desc") instead of relevance
+    private final String sort;
+
+    // content: read the entries of zip, jar, tar... archives
+    private final boolean archives;
+
+    // content: levels of archives opened, the ones inside archives included
+    @Builder.Default
+    private final int maxArchiveDepth = 2;
+
+    // parse: where the extracted text of files is kept between runs, by content hash (null: for this run only)
+    private final Path extractionCacheDir;
+
+    // content: index the content hash of every file and show the copies of a file as one match
+    private final boolean collapseDuplicates;
+
+    // parse: files bigger than this are not opened
+    @Builder.Default
+    private final long maxFileBytes = 100L << 20;
+
+    // parse: characters extracted from a file before it is truncated
+    @Builder.Default
+    private final long maxChars = 10_000_000;
 
+    // parse: time a file may take before it is skipped
+    @Builder.Default
+    private final long parseTimeoutMillis = 60_000;
 }
@@ -1,18 +1,44 @@
 package cli.core.analyzers;
 
+import cli.core.filters.SuffixTokenFilter;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.LowerCaseFilter;
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.core.WhitespaceTokenizer;
 
 public class CustomWhiteSpaceAnalyzer extends Analyzer {
+    // sub-field holding every suffix of the tokens of its parent field, see SuffixTokenFilter
+    public static final String SUFFIX_FIELD = ".suffix";
+    public static final int MAX_SUFFIX_LENGTH = 32;
+    // sub-field holding the character trigrams of its parent field, see TrigramTokenizer
+    public static final String TRIGRAM_FIELD = ".trigram";
+
+    public CustomWhiteSpaceAnalyzer() {
+        // components differ between a field and its suffix sub-field
+        super(PER_FIELD_REUSE_STRATEGY);
+    }
+
+    public static String suffixField(String field) {
+        return field + SUFFIX_FIELD;
+    }
+
+    public static String trigramField(String field) {
+        return field + TRIGRAM_FIELD;
+    }
+
     @Override
     protected TokenStreamComponents createComponents(String fieldName) {
+        if (fieldName.endsWith(TRIGRAM_FIELD))
+            return new TokenStreamComponents(new TrigramTokenizer());
+
         WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
 
         TokenFilter filter = new LowerCaseFilter(tokenizer); // Normalize tokens to lowercase
 //        filter = new ReversedTokenFilter(filter); // Apply custom synonym filter
 
+        if (fieldName.endsWith(SUFFIX_FIELD))
+            filter = new SuffixTokenFilter(filter, MAX_SUFFIX_LENGTH);
+
         return new TokenStreamComponents(tokenizer, filter);
     }
 
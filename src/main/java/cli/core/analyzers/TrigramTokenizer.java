@@ -0,0 +1,81 @@
+package cli.core.analyzers;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+
+import java.io.IOException;
+
+/**
+ * Emits every run of three consecutive characters of the input, lowercased and with any whitespace
+ * character turned into a space, e.g. "Ab c" -> "ab ", "b c".
+ * A string of three or more characters can only occur in a text that has all of its trigrams, which makes
+ * the trigrams of the literal parts of a regex a cheap prefilter for it, see RegexQueryBuilder.
+ */
+public final class TrigramTokenizer extends Tokenizer {
+    public static final int GRAM_SIZE = 3;
+
+    private final CharTermAttribute charTermAttribute = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAttribute = addAttribute(OffsetAttribute.class);
+
+    private final char[] buffer = new char[4096];
+    private int bufferLength;
+    private int bufferPosition;
+
+    private final char[] gram = new char[GRAM_SIZE];
+    private int gramLength;
+    private int offset;
+
+    public static char normalize(char c) {
+        return Character.isWhitespace(c)? ' ': Character.toLowerCase(c);
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        clearAttributes();
+
+        while (true) {
+            if (bufferPosition == bufferLength) {
+                bufferLength = input.read(buffer);
+                bufferPosition = 0;
+
+                if (bufferLength <= 0) {
+                    bufferLength = 0;
+                    return false;
+                }
+            }
+
+            char c = normalize(buffer[bufferPosition++]);
+            offset++;
+
+            // slide the window by one character
+            if (gramLength == GRAM_SIZE) {
+                System.arraycopy(gram, 1, gram, 0, GRAM_SIZE - 1);
+                gramLength--;
+            }
+            gram[gramLength++] = c;
+
+            if (gramLength == GRAM_SIZE) {
+                charTermAttribute.copyBuffer(gram, 0, GRAM_SIZE);
+                offsetAttribute.setOffset(correctOffset(offset - GRAM_SIZE), correctOffset(offset));
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        int finalOffset = correctOffset(offset);
+        offsetAttribute.setOffset(finalOffset, finalOffset);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        bufferLength = 0;
+        bufferPosition = 0;
+        gramLength = 0;
+        offset = 0;
+    }
+}
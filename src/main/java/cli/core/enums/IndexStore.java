@@ -0,0 +1,28 @@
+package cli.core.enums;
+
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+
+public enum IndexStore {
+    DISK,       // lets lucene pick the best file system directory for the platform
+    MMAP,       // memory mapped files, for large persistent indexes
+    MEMORY;     // heap only, nothing is written to disk
+
+    public Directory open(Path indexDir) throws IOException {
+        switch (this) {
+            case MMAP: return new MMapDirectory(indexDir);
+            case MEMORY: return new ByteBuffersDirectory();
+            default: return FSDirectory.open(indexDir);
+        }
+    }
+
+    public boolean needsDirectory() {
+        return this != MEMORY;
+    }
+}
@@ -10,6 +10,8 @@ public enum MimeType {
     PDF,
     DOC,
     TEXT,
+    // read entry by entry, see ArchiveReader
+    ARCHIVE,
     OTHER;
 
     IParser parser;
@@ -29,12 +31,23 @@ public enum MimeType {
                 return DOC;
             case "application/x-bat":
                 return TEXT;
+            case "archive":
+            case "application/zip":
+            case "application/java-archive":
+            case "application/x-tika-java-web-archive":
+            case "application/x-tika-java-enterprise-archive":
+            case "application/x-tar":
+            case "application/gzip":
+            case "application/x-gzip":
+            case "application/x-bzip2":
+                return ARCHIVE;
         }
 
         return OTHER;
     }
 
-    public IParser getParser() {
+    // synchronized as the parsers are shared by the indexing workers
+    public synchronized IParser getParser() {
         if(parser == null) {
             switch(this) {
                 case PDF: return (parser = new PdfFileParser());
@@ -0,0 +1,34 @@
+package cli.core.enums;
+
+import java.util.Locale;
+
+
+// what a query searches in the combined index (--all), picked by a prefix, e.g. "name:report"
+public enum SearchTarget {
+    NAME,       // the file or directory name
+    PATH,       // the directories it is in, below the search path
+    CONTENT;
+
+    // also the field searched, expressions name it like any other field
+    public String getField() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public String getPrefix() {
+        return getField() + ":";
+    }
+
+    // the target the query starts with, null if it has no prefix
+    public static SearchTarget ofPrefix(final String query) {
+        for (SearchTarget target : values()) {
+            if(query.regionMatches(true, 0, target.getPrefix(), 0, target.getPrefix().length()))
+                return target;
+        }
+
+        return null;
+    }
+
+    public String stripPrefix(final String query) {
+        return query.substring(getPrefix().length()).trim();
+    }
+}
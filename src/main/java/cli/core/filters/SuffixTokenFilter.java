@@ -0,0 +1,64 @@
+package cli.core.filters;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+
+/**
+ * Emits every suffix of every token at the position of the token, e.g. "lucene" -> lucene, ucene, cene, ene, ne, e.
+ * A substring of a token is then a prefix of one of its suffixes, and a token ending with a string has that
+ * string as a term, so "*abc*" becomes a prefix lookup and "*abc" a term lookup.
+ * Suffixes are cut to maxLength characters to bound the index size, so only query strings shorter than
+ * maxLength can be answered from these terms.
+ */
+public final class SuffixTokenFilter extends TokenFilter {
+    private final CharTermAttribute charTermAttribute = addAttribute(CharTermAttribute.class);
+    private final PositionIncrementAttribute posIncAttribute = addAttribute(PositionIncrementAttribute.class);
+    private final int maxLength;
+
+    private char[] token = new char[16];
+    private int tokenLength;
+    private int nextStart;
+
+    public SuffixTokenFilter(TokenStream input, int maxLength) {
+        super(input);
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (nextStart < tokenLength) {
+            // remaining suffixes of the current token, at the same position
+            emit(nextStart++);
+            posIncAttribute.setPositionIncrement(0);
+            return true;
+        }
+
+        if (!input.incrementToken())
+            return false;
+
+        tokenLength = charTermAttribute.length();
+        token = ArrayUtil.grow(token, tokenLength);
+        System.arraycopy(charTermAttribute.buffer(), 0, token, 0, tokenLength);
+
+        // the token itself is the first suffix, keeps the position increment of the input
+        emit(0);
+        nextStart = 1;
+        return true;
+    }
+
+    private void emit(int start) {
+        charTermAttribute.copyBuffer(token, start, Math.min(maxLength, tokenLength - start));
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        tokenLength = 0;
+        nextStart = 0;
+    }
+}
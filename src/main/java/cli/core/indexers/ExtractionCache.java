@@ -0,0 +1,407 @@
+package cli.core.indexers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static cli.config.GlobalLogger.log;
+
+
+/**
+ * Text extracted from files, stored on disk by the SHA-256 of the file content, so that copies of a file and
+ * files that were touched but not changed are not parsed again.
+ * The hash of a path is remembered with its size and modification time: as long as those are the same, the
+ * file is not read to hash it again. A persistent cache drops, when closed, the paths that no longer exist
+ * and the texts no path refers to anymore; a temporary one is deleted.
+ * A persistent cache may be shared by several processes (a daemon and a --persist run, two roots...): the
+ * manifest is merged with the one on disk when saved, under a lock, and the unused texts are only removed by
+ * the last process to close the cache, the others may still be writing texts no manifest has yet.
+ * Safe to use from the indexing workers.
+ */
+public class ExtractionCache implements Closeable {
+    private static final String MANIFEST = "paths.gz";
+    // held shared by every process using the cache, exclusively to remove the unused texts
+    private static final String USERS_LOCK = "users.lock";
+    // held while the manifest is merged and saved
+    private static final String MANIFEST_LOCK = "manifest.lock";
+    private static final String BLOB_SUFFIX = ".gz";
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    // in place of the number of chunks: the chunks go on until a negative length
+    private static final int UNTIL_END = -1;
+
+    private static class Fingerprint {
+        final long size;
+        final long modified;
+        final String hash;
+
+        Fingerprint(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    private final Path dir;
+    private final boolean temporary;
+    private final Map<String, Fingerprint> fingerprints;   // absPath -> content hash
+    private FileChannel users;
+    private FileLock userLock;
+
+    private ExtractionCache(Path dir, boolean temporary, Map<String, Fingerprint> fingerprints) {
+        this.dir = dir;
+        this.temporary = temporary;
+        this.fingerprints = fingerprints;
+    }
+
+    public static ExtractionCache open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+
+        ExtractionCache cache = new ExtractionCache(dir, false, new ConcurrentHashMap<>());
+        cache.lockAsUser();
+        cache.fingerprints.putAll(loadManifest(dir.resolve(MANIFEST)));
+
+        return cache;
+    }
+
+    // waits while another process removes unused texts
+    private void lockAsUser() throws IOException {
+        users = FileChannel.open(dir.resolve(USERS_LOCK), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            userLock = users.lock(0, Long.MAX_VALUE, true);
+        } catch (OverlappingFileLockException e) {
+            // another cache on the same directory in this process, which holds the lock for both
+            log.info("extraction cache already open in this process: " + dir);
+        }
+    }
+
+    // for a single run: still spares parsing the copies of a file
+    public static ExtractionCache temporary() throws IOException {
+        return new ExtractionCache(Files.createTempDirectory("lfind-extracts"), true, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Hash of the content of the file, read again only if its size or modification time changed.
+     */
+    public String hash(Path file, BasicFileAttributes attributes) throws IOException {
+        String absPath = file.toAbsolutePath().toString();
+        long modified = attributes.lastModifiedTime().toMillis();
+        Fingerprint known = fingerprints.get(absPath);
+
+        if (known != null && known.size == attributes.size() && known.modified == modified)
+            return known.hash;
+
+        String hash = hashContent(file);
+        fingerprints.put(absPath, new Fingerprint(attributes.size(), modified, hash));
+
+        return hash;
+    }
+
+    /**
+     * The text extracted from a file with this hash, null if there is none yet.
+     */
+    public List<String> get(String hash) {
+        Path blob = blobPath(hash);
+
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(blob))))) {
+            int nChunks = in.readInt();
+            List<String> chunks = new ArrayList<>(Math.max(nChunks, 0));
+
+            for (int i = 0; nChunks == UNTIL_END || i < nChunks; i++) {
+                int length = in.readInt();
+
+                if (length < 0)
+                    break;
+
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                chunks.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+
+            return chunks;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            // a partial or corrupt blob is parsed again and replaced
+            log.severe("unreadable cached text: " + blob + " | " + e);
+            return null;
+        }
+    }
+
+    public boolean contains(String hash) {
+        return Files.exists(blobPath(hash));
+    }
+
+    /**
+     * A text written as it is extracted, for when it is never whole in memory: it is only cached once
+     * committed, after its last chunk.
+     */
+    public class PendingText {
+        private final Path blob;
+        private Path partial;
+        private DataOutputStream out;
+
+        private PendingText(Path blob) {
+            this.blob = blob;
+
+            try {
+                Files.createDirectories(blob.getParent());
+                this.partial = Files.createTempFile(blob.getParent(), blob.getFileName().toString(), ".tmp");
+                this.out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(partial))));
+                out.writeInt(UNTIL_END);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        public void write(String chunk) {
+            if (out == null)
+                return;
+
+            try {
+                byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        public void commit() {
+            if (out == null)
+                return;
+
+            try {
+                out.writeInt(UNTIL_END);
+                out.close();
+                out = null;
+                Files.move(partial, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        // e.g. a truncated text, which depends on the limits of the run
+        public void discard() {
+            if (out == null)
+                return;
+
+            closeQuietly();
+            deletePartial();
+        }
+
+        private void fail(IOException e) {
+            log.severe("cannot cache text: " + blob + " | " + e);
+            closeQuietly();
+            deletePartial();
+        }
+
+        private void closeQuietly() {
+            try {
+                if (out != null)
+                    out.close();
+            } catch (IOException e) {
+                // deleted anyway
+            }
+
+            out = null;
+        }
+
+        private void deletePartial() {
+            try {
+                if (partial != null)
+                    Files.deleteIfExists(partial);
+            } catch (IOException e) {
+                log.severe("cannot delete: " + partial + " | " + e);
+            }
+        }
+    }
+
+    public PendingText open(String hash) {
+        return new PendingText(blobPath(hash));
+    }
+
+    public void put(String hash, List<String> chunks) {
+        PendingText text = open(hash);
+
+        for (String chunk : chunks) {
+            text.write(chunk);
+        }
+
+        text.commit();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (temporary) {
+            org.apache.commons.io.FileUtils.deleteDirectory(dir.toFile());
+            return;
+        }
+
+        try {
+            Set<String> used = mergeAndSaveManifest();
+            removeUnusedBlobsIfLast(used);
+        } finally {
+            users.close();
+        }
+    }
+
+    /**
+     * Adds the paths other processes saved since this one opened the cache, then saves the manifest: one
+     * process at a time, the paths of the others are never lost.
+     *
+     * @return the names of the texts the saved manifest refers to
+     */
+    private Set<String> mergeAndSaveManifest() throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.resolve(MANIFEST_LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            // the fingerprints of this process are the latest for the paths it saw
+            loadManifest(dir.resolve(MANIFEST)).forEach(fingerprints::putIfAbsent);
+            fingerprints.keySet().removeIf(absPath -> !Files.exists(Path.of(absPath)));
+            saveManifest();
+
+            return fingerprints.values().stream()
+                    .map(fingerprint -> fingerprint.hash + BLOB_SUFFIX)
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    private void removeUnusedBlobsIfLast(Set<String> used) throws IOException {
+        if (userLock == null) {
+            log.info("extraction cache still open in this process, unused texts are kept: " + dir);
+            return;
+        }
+
+        userLock.release();
+
+        FileLock exclusive;
+        try {
+            exclusive = users.tryLock();
+        } catch (OverlappingFileLockException e) {
+            exclusive = null;
+        }
+
+        if (exclusive == null) {
+            log.info("extraction cache in use by another process, unused texts are kept: " + dir);
+            return;
+        }
+
+        try {
+            removeUnusedBlobs(used);
+        } finally {
+            exclusive.release();
+        }
+    }
+
+    private Path blobPath(String hash) {
+        // fanned out by the first byte, a directory stays small
+        return dir.resolve(hash.substring(0, 2)).resolve(hash + BLOB_SUFFIX);
+    }
+
+    private static String hashContent(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        return String.format("%064x", new BigInteger(1, digest.digest()));
+    }
+
+    private static Map<String, Fingerprint> loadManifest(Path manifest) {
+        Map<String, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+
+        if (!Files.exists(manifest))
+            return fingerprints;
+
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(manifest))))) {
+            int nPaths = in.readInt();
+
+            for (int i = 0; i < nPaths; i++) {
+                String absPath = in.readUTF();
+                fingerprints.put(absPath, new Fingerprint(in.readLong(), in.readLong(), in.readUTF()));
+            }
+        } catch (EOFException e) {
+            log.severe("truncated extraction cache manifest: " + manifest);
+        } catch (IOException e) {
+            // the paths are hashed again
+            log.severe("unreadable extraction cache manifest: " + manifest + " | " + e);
+        }
+
+        log.info("paths in extraction cache: " + fingerprints.size());
+
+        return fingerprints;
+    }
+
+    private void saveManifest() throws IOException {
+        Path manifest = dir.resolve(MANIFEST);
+        Path partial = Files.createTempFile(dir, MANIFEST, ".tmp");
+        Map<String, Fingerprint> snapshot = Map.copyOf(fingerprints);
+
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(partial))))) {
+            out.writeInt(snapshot.size());
+
+            for (Map.Entry<String, Fingerprint> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().modified);
+                out.writeUTF(entry.getValue().hash);
+            }
+        }
+
+        Files.move(partial, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void removeUnusedBlobs(Set<String> used) throws IOException {
+        try (Stream<Path> blobs = Files.walk(dir, 2)) {
+            List<Path> unused = blobs
+                    .filter(path -> path.getFileName().toString().endsWith(BLOB_SUFFIX) && !path.getParent().equals(dir))
+                    .filter(path -> !used.contains(path.getFileName().toString()))
+                    .collect(Collectors.toList());
+
+            for (Path blob : unused) {
+                Files.deleteIfExists(blob);
+            }
+
+            if (!unused.isEmpty())
+                log.info("removed unused cached texts: " + unused.size());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package cli.core.indexers;
+
+import cli.config.Config;
+import cli.metrics.Timer;
+
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static cli.config.GlobalLogger.log;
+import static cli.metrics.Metrics.metrics;
+
+
+/**
+ * Walks the tree below a root directory, skipping version control directories and whatever the ignore rules
+ * exclude. Excluded directories are pruned as a whole, and every path is handed to the visitor with the
+ * attributes read by the walk, so that nothing is stat'ed twice.
+ */
+public class FileWalker {
+    // never worth indexing, whatever the ignore files say
+    private static final Set<String> VCS_DIRS = Set.of(".git", ".hg", ".svn");
+    private static final Timer WALK_TIMER = metrics.timer("walk");
+
+    public interface Visitor {
+        void visit(Path path, BasicFileAttributes attributes) throws IOException;
+    }
+
+    private final Path root;
+    private final int maxDepth;
+    private final boolean followSymlinks;
+    private final IgnoreRules ignoreRules;
+
+    public FileWalker(Path root, Config config) {
+        this.root = root.toAbsolutePath().normalize();
+        this.maxDepth = config.getMaxDepth();
+        this.followSymlinks = config.isFollowSymlinks();
+        this.ignoreRules = new IgnoreRules(this.root, config.isReadIgnoreFiles(), config.getExcludes());
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Visits the start directory (below the root) and everything under it that is not excluded.
+     * The time of the walk itself, the visits left out, goes to the "walk" timer.
+     */
+    public void walk(Path start, Visitor visitor) throws IOException {
+        long startNanos = System.nanoTime();
+        long[] visitingNanos = {0};
+
+        try {
+            walkTree(start, (path, attributes) -> {
+                long visited = System.nanoTime();
+
+                try {
+                    visitor.visit(path, attributes);
+                } finally {
+                    visitingNanos[0] += System.nanoTime() - visited;
+                }
+            });
+        } finally {
+            WALK_TIMER.record(System.nanoTime() - startNanos - visitingNanos[0]);
+        }
+    }
+
+    private void walkTree(Path start, Visitor visitor) throws IOException {
+        Path startDir = start.toAbsolutePath().normalize();
+        int depth = maxDepth - depthOf(startDir);
+
+        if (depth < 0)
+            return;
+
+        Set<FileVisitOption> options = followSymlinks? EnumSet.of(FileVisitOption.FOLLOW_LINKS): EnumSet.noneOf(FileVisitOption.class);
+
+        Files.walkFileTree(startDir, options, depth, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+                if (!dir.equals(startDir) && isExcluded(dir, true))
+                    return FileVisitResult.SKIP_SUBTREE;
+
+                visitor.visit(dir, attributes);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                // without FOLLOW_LINKS a link comes with its own attributes, the ones of its target are indexed
+                if (attributes.isSymbolicLink()) {
+                    try {
+                        attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        log.info("skipping broken link: " + file);
+                        return FileVisitResult.CONTINUE;
+                    }
+                }
+
+                if (!isExcluded(file, attributes.isDirectory()))
+                    visitor.visit(file, attributes);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                if (e instanceof FileSystemLoopException)
+                    log.info("skipping link cycle: " + file);
+                else
+                    log.severe("cannot read: " + file + " | " + e.getMessage());
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Tells if a path found outside of a walk (e.g. by the watcher) would have been visited by one.
+     */
+    public boolean isIncluded(Path path) {
+        Path absolutePath = path.toAbsolutePath().normalize();
+
+        if (!absolutePath.startsWith(root) || depthOf(absolutePath) > maxDepth)
+            return false;
+
+        // every directory on the way down must have been walked into
+        Path relative = root.relativize(absolutePath);
+        Path dir = root;
+        for (int i = 0; i < relative.getNameCount() - 1; i++) {
+            dir = dir.resolve(relative.getName(i));
+
+            if (isExcluded(dir, true))
+                return false;
+        }
+
+        LinkOption[] linkOptions = followSymlinks? new LinkOption[0]: new LinkOption[]{LinkOption.NOFOLLOW_LINKS};
+
+        return absolutePath.equals(root) || !isExcluded(absolutePath, Files.isDirectory(absolutePath, linkOptions));
+    }
+
+    /**
+     * To be called when an ignore file changed.
+     */
+    public void ignoreFileChanged(Path ignoreFile) {
+        ignoreRules.invalidate(ignoreFile.toAbsolutePath().normalize().getParent());
+    }
+
+    private boolean isExcluded(Path path, boolean isDirectory) {
+        if (isDirectory && VCS_DIRS.contains(path.getFileName().toString()))
+            return true;
+
+        return ignoreRules.isIgnored(path, isDirectory);
+    }
+
+    /**
+     * Levels below the root: 1 for the files in the root directory, like --max-depth counts them.
+     */
+    public int depthOf(Path path) {
+        Path absolutePath = path.toAbsolutePath().normalize();
+
+        return absolutePath.equals(root)? 0: root.relativize(absolutePath).getNameCount();
+    }
+}
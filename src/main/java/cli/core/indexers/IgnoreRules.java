@@ -0,0 +1,226 @@
+package cli.core.indexers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import static cli.config.GlobalLogger.log;
+
+
+/**
+ * The .gitignore / .ignore rules that apply below a root directory, plus extra exclude patterns.
+ * Patterns follow the .gitignore syntax: '!' negates, a trailing '/' only matches directories, a pattern with a
+ * '/' is relative to the directory of its ignore file, otherwise it matches a name at any depth; '*', '?',
+ * '[...]' and '**' are globs.
+ * Rules of a deeper directory take precedence over the ones above it, .ignore over .gitignore and the extra
+ * excludes over everything. The ignore files of every directory are read once, when first needed.
+ * Safe to use from the indexing workers.
+ */
+public class IgnoreRules {
+    public static final List<String> IGNORE_FILES = List.of(".gitignore", ".ignore");
+
+    private final Path root;
+    private final boolean readIgnoreFiles;
+    // ancestors of the root whose ignore files still apply (up to the root of the enclosing repository)
+    private final List<Path> outerDirs;
+    private final List<Rule> excludes;
+    private final Map<Path, List<Rule>> rulesByDir = new ConcurrentHashMap<>();
+
+    public IgnoreRules(Path root, boolean readIgnoreFiles, List<String> excludes) {
+        this.root = root.toAbsolutePath().normalize();
+        this.readIgnoreFiles = readIgnoreFiles;
+        this.outerDirs = readIgnoreFiles? findOuterDirs(this.root): List.of();
+        this.excludes = parse(excludes);
+    }
+
+    private static List<Path> findOuterDirs(Path root) {
+        // the repository root is the closest directory with a .git entry
+        Path repositoryRoot = null;
+        for (Path dir = root; dir != null && repositoryRoot == null; dir = dir.getParent()) {
+            if (Files.exists(dir.resolve(".git")))
+                repositoryRoot = dir;
+        }
+
+        if (repositoryRoot == null || repositoryRoot.equals(root))
+            return List.of();
+
+        List<Path> dirs = new ArrayList<>();
+        for (Path dir = root.getParent(); ; dir = dir.getParent()) {
+            dirs.add(dir);
+            if (dir.equals(repositoryRoot))
+                break;
+        }
+
+        // outermost first, deeper rules are applied last
+        Collections.reverse(dirs);
+        return dirs;
+    }
+
+    private static List<Rule> parse(List<String> lines) {
+        List<Rule> rules = new ArrayList<>();
+
+        for (String line : lines) {
+            Rule rule = Rule.parse(line);
+            if (rule != null)
+                rules.add(rule);
+        }
+
+        return rules;
+    }
+
+    /**
+     * Tells if the path, below the root, is ignored by the rules of its ancestors.
+     * Only the path itself is matched: the walker never descends into an ignored directory.
+     */
+    public boolean isIgnored(Path path, boolean isDirectory) {
+        Path relative = root.relativize(path.toAbsolutePath().normalize());
+        boolean ignored = false;
+
+        if (readIgnoreFiles) {
+            for (Path dir : outerDirs) {
+                ignored = apply(rulesOf(dir), dir.relativize(path.toAbsolutePath().normalize()), isDirectory, ignored);
+            }
+
+            Path dir = root;
+            for (int i = 0; i < relative.getNameCount(); i++) {
+                ignored = apply(rulesOf(dir), relative.subpath(i, relative.getNameCount()), isDirectory, ignored);
+                dir = dir.resolve(relative.getName(i));
+            }
+        }
+
+        return apply(excludes, relative, isDirectory, ignored);
+    }
+
+    /**
+     * Drops the cached rules of a directory, e.g. after its .gitignore changed.
+     */
+    public void invalidate(Path dir) {
+        rulesByDir.remove(dir.toAbsolutePath().normalize());
+    }
+
+    private static boolean apply(List<Rule> rules, Path relative, boolean isDirectory, boolean ignored) {
+        if (rules.isEmpty())
+            return ignored;
+
+        String path = relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+
+        // the last matching rule decides
+        for (Rule rule : rules) {
+            if (rule.matches(path, isDirectory))
+                ignored = !rule.negated;
+        }
+
+        return ignored;
+    }
+
+    private List<Rule> rulesOf(Path dir) {
+        return rulesByDir.computeIfAbsent(dir, d -> {
+            List<String> lines = new ArrayList<>();
+
+            for (String name : IGNORE_FILES) {
+                Path file = d.resolve(name);
+                if (!Files.isRegularFile(file))
+                    continue;
+
+                try {
+                    lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    log.severe("cannot read ignore file: " + file + " | " + e.getMessage());
+                }
+            }
+
+            return lines.isEmpty()? List.of(): parse(lines);
+        });
+    }
+
+    private static class Rule {
+        final Pattern pattern;
+        final boolean negated;
+        final boolean directoryOnly;
+
+        private Rule(Pattern pattern, boolean negated, boolean directoryOnly) {
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+        }
+
+        boolean matches(String path, boolean isDirectory) {
+            return (isDirectory || !directoryOnly) && pattern.matcher(path).matches();
+        }
+
+        static Rule parse(String line) {
+            String glob = line.endsWith("\\ ")? line: line.stripTrailing();
+
+            if (glob.isEmpty() || glob.startsWith("#"))
+                return null;
+
+            boolean negated = glob.startsWith("!");
+            if (negated)
+                glob = glob.substring(1);
+
+            // \# and \! are literal
+            if (glob.startsWith("\\"))
+                glob = glob.substring(1);
+
+            boolean directoryOnly = glob.endsWith("/");
+            if (directoryOnly)
+                glob = glob.substring(0, glob.length() - 1);
+
+            // a pattern with a slash is anchored to the directory of the ignore file, otherwise it matches at any depth
+            boolean anchored = glob.contains("/");
+            if (glob.startsWith("/"))
+                glob = glob.substring(1);
+
+            if (glob.isEmpty())
+                return null;
+
+            String regex = (anchored? "": "(?:.*/)?") + globToRegex(glob);
+
+            return new Rule(Pattern.compile(regex), negated, directoryOnly);
+        }
+
+        private static String globToRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+
+                if (glob.startsWith("**/", i) && (i == 0 || glob.charAt(i - 1) == '/')) {
+                    // any number of leading directories
+                    regex.append("(?:.*/)?");
+                    i += 2;
+                } else if (glob.startsWith("**", i) && (i == 0 || glob.charAt(i - 1) == '/') && i + 2 == glob.length()) {
+                    // everything inside
+                    regex.append(".*");
+                    i += 1;
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else if (c == '[' && glob.indexOf(']', i + 1) > i + 1) {
+                    int end = glob.indexOf(']', i + 1);
+                    String set = glob.substring(i + 1, end);
+
+                    if (set.startsWith("!"))
+                        set = "^" + set.substring(1);
+
+                    regex.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    i = end;
+                } else if (c == '\\' && i + 1 < glob.length()) {
+                    regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+
+            return regex.toString();
+        }
+    }
+}
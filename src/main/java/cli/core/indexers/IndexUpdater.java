@@ -0,0 +1,18 @@
+package cli.core.indexers;
+
+import java.nio.file.Path;
+
+
+/**
+ * Index that can be updated path by path once it is built, see {@link IndexWatcher}.
+ */
+public interface IndexUpdater {
+    // (re-)indexes a created or modified path
+    void updatePath(Path path);
+
+    // removes a deleted path, and everything below it if it was a directory
+    void deletePath(Path path);
+
+    // makes the applied changes visible to the searches
+    void refresh();
+}
@@ -0,0 +1,175 @@
+package cli.core.indexers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static cli.config.GlobalLogger.log;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+
+/**
+ * Keeps an index in sync with the directory tree it was built from.
+ * Every directory the {@link FileWalker} walks into is registered with a {@link WatchService}; events are
+ * collected until the tree has been quiet for a short while, merged per path, and then applied to the index
+ * in one batch followed by a single refresh of the searcher.
+ */
+public class IndexWatcher implements Closeable {
+    // a batch is applied once no event arrived for this long
+    private static final long DEBOUNCE_MILLIS = 300;
+
+    private final Path root;
+    private final FileWalker walker;
+    private final IndexUpdater updater;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    public IndexWatcher(FileWalker walker, IndexUpdater updater) throws IOException {
+        this.root = walker.getRoot();
+        this.walker = walker;
+        this.updater = updater;
+        this.watchService = root.getFileSystem().newWatchService();
+
+        registerTree(root);
+        log.info("watching " + watchedDirs.size() + " directories under " + root);
+
+        this.thread = new Thread(this::processEvents, "lfind-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void registerTree(Path dir) throws IOException {
+        // ignored directories are not watched
+        walker.walk(dir, (path, attributes) -> {
+            if (!attributes.isDirectory())
+                return;
+
+            try {
+                watchedDirs.put(path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), path);
+            } catch (IOException e) {
+                log.severe("cannot watch: " + path + " | " + e.getMessage());
+            }
+        });
+    }
+
+    private void processEvents() {
+        try {
+            while (true) {
+                // latest kind of event per path, in arrival order
+                Map<Path, WatchEvent.Kind<?>> batch = new LinkedHashMap<>();
+                boolean overflow = collect(watchService.take(), batch);
+
+                WatchKey key;
+                while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collect(key, batch);
+                }
+
+                apply(batch, overflow);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.info("watcher stopped");
+        }
+    }
+
+    private boolean collect(WatchKey key, Map<Path, WatchEvent.Kind<?>> batch) {
+        Path dir = watchedDirs.get(key);
+        boolean overflow = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || dir == null) {
+                overflow = true;
+                continue;
+            }
+
+            Path path = dir.resolve((Path) event.context());
+            WatchEvent.Kind<?> previous = batch.get(path);
+
+            // a modification does not downgrade a creation: the new path still has to be walked
+            if (event.kind() == ENTRY_MODIFY && previous == ENTRY_CREATE)
+                continue;
+
+            batch.remove(path);
+            batch.put(path, event.kind());
+        }
+
+        // the directory itself is gone
+        if (!key.reset())
+            watchedDirs.remove(key);
+
+        return overflow;
+    }
+
+    // a change that fails is logged and the others are applied all the same, the watcher keeps running
+    // (the updaters may throw anything, some rethrow their IOExceptions unchecked)
+    private void apply(Map<Path, WatchEvent.Kind<?>> batch, boolean overflow) {
+        log.info("applying " + batch.size() + " change(s)" + (overflow? ", events were lost: rescanning " + root: ""));
+
+        for (Map.Entry<Path, WatchEvent.Kind<?>> change : batch.entrySet()) {
+            try {
+                apply(change.getKey(), change.getValue());
+            } catch (Exception e) {
+                logFailure("failed to apply change: " + change.getValue().name() + " " + change.getKey(), e);
+            }
+        }
+
+        try {
+            if (overflow) {
+                registerTree(root);
+                updateTree(root);
+            }
+        } catch (Exception e) {
+            logFailure("failed to rescan: " + root, e);
+        }
+
+        try {
+            updater.refresh();
+        } catch (Exception e) {
+            logFailure("failed to refresh the index, the next batch tries again", e);
+        }
+    }
+
+    private void apply(Path path, WatchEvent.Kind<?> kind) throws IOException {
+        // later changes below the directory follow the new rules
+        if (IgnoreRules.IGNORE_FILES.contains(path.getFileName().toString()))
+            walker.ignoreFileChanged(path);
+
+        if (kind == ENTRY_DELETE) {
+            updater.deletePath(path);
+        } else if (!walker.isIncluded(path)) {
+            return;
+        } else if (kind == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            // files may land in a new directory before it is registered
+            registerTree(path);
+            updateTree(path);
+        } else if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            updater.updatePath(path);
+        }
+    }
+
+    private static void logFailure(String message, Exception e) {
+        log.severe(message + " | " + e);
+        Arrays.stream(e.getStackTrace()).forEach(st -> log.severe(st.toString()));
+    }
+
+    private void updateTree(Path dir) throws IOException {
+        walker.walk(dir, (path, attributes) -> updater.updatePath(path));
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,42 @@
+package cli.core.indexers;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
+
+
+/**
+ * Tunes the writers of the searchers for a bulk load: the index is written once, in one go, then only read
+ * (a persistent or watched one gets small updates later). Segments are flushed when the RAM buffer is full,
+ * not every so many documents, so that a build makes a few big segments and little merging.
+ */
+public final class IndexWriterSettings {
+    public static final int DEFAULT_RAM_BUFFER_MB = 64;
+
+    private IndexWriterSettings() {}
+
+    /**
+     * @param persistent the index outlives the process
+     */
+    public static void tune(IndexWriterConfig config, int ramBufferMB, boolean persistent) {
+        config.setRAMBufferSizeMB(ramBufferMB);
+        // flushed by RAM only
+        config.setMaxBufferedDocs(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+
+        if (!persistent) {
+            // compound files save file handles on long lived indexes, a throwaway one would only pay
+            // for copying every segment once more
+            config.setUseCompoundFile(false);
+            mergePolicy.setNoCFSRatio(0.0);
+        }
+
+        config.setMergePolicy(mergePolicy);
+    }
+
+    // e.g. "1000000 documents in 6 segments"
+    public static String describe(IndexReader reader) {
+        return reader.numDocs() + " documents in " + reader.leaves().size() + " segments";
+    }
+}
@@ -0,0 +1,92 @@
+package cli.core.indexers;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static cli.config.GlobalLogger.log;
+
+
+/**
+ * Snapshot of the files already present in a persistent index, used to diff the file system against it.
+ * Every walked path is checked (and marked as seen) with {@link #isUpToDate}; whatever is left unseen
+ * after the walk no longer exists on disk and has to be deleted from the index.
+ * Safe to use from the indexing workers.
+ */
+public class IndexedFiles {
+    private final Map<String, long[]> files;   // absPath -> {size, modified}
+
+    private IndexedFiles(Map<String, long[]> files) {
+        this.files = files;
+    }
+
+    public static IndexedFiles empty() {
+        return new IndexedFiles(new ConcurrentHashMap<>());
+    }
+
+    public static IndexedFiles load(Directory index, String pathField, String sizeField, String modifiedField) throws IOException {
+        Map<String, long[]> files = new ConcurrentHashMap<>();
+
+        if (!DirectoryReader.indexExists(index))
+            return new IndexedFiles(files);
+
+        Set<String> fields = Set.of(pathField, sizeField, modifiedField);
+
+        try (DirectoryReader reader = DirectoryReader.open(index)) {
+            for (LeafReaderContext context : reader.leaves()) {
+                LeafReader leaf = context.reader();
+                Bits liveDocs = leaf.getLiveDocs();
+                StoredFields storedFields = leaf.storedFields();
+
+                for (int docId = 0; docId < leaf.maxDoc(); docId++) {
+                    if (liveDocs != null && !liveDocs.get(docId))
+                        continue;
+
+                    Document document = storedFields.document(docId, fields);
+                    String path = document.get(pathField);
+
+                    if (path == null || document.getField(sizeField) == null || document.getField(modifiedField) == null)
+                        continue;
+
+                    files.put(path, new long[]{
+                            document.getField(sizeField).numericValue().longValue(),
+                            document.getField(modifiedField).numericValue().longValue()
+                    });
+                }
+            }
+        }
+
+        log.info("files in existing index: " + files.size());
+
+        return new IndexedFiles(files);
+    }
+
+    /**
+     * Marks the path as seen and tells if the indexed copy is still valid.
+     */
+    public boolean isUpToDate(String absPath, BasicFileAttributes attributes) {
+        long[] indexed = files.remove(absPath);
+
+        return indexed != null
+                && indexed[0] == attributes.size()
+                && indexed[1] == attributes.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * Indexed paths that were not seen during the walk.
+     */
+    public Collection<String> getRemovedPaths() {
+        return files.keySet();
+    }
+}
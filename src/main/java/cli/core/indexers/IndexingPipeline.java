@@ -0,0 +1,116 @@
+package cli.core.indexers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static cli.config.GlobalLogger.log;
+
+
+/**
+ * Two stage producer/consumer pipeline used while building an index.
+ * The calling thread walks the source and feeds a bounded queue, a fixed pool of workers
+ * drains the queue and runs the (thread-safe) worker on every item.
+ */
+public class IndexingPipeline<T> {
+    // items buffered per worker before the walker blocks
+    private static final int QUEUE_SIZE_PER_WORKER = 64;
+
+    // feeds the items to the pipeline, e.g. a file walk
+    public interface Source<T> {
+        void feed(Consumer<T> sink) throws IOException;
+    }
+
+    private final int nWorkers;
+    private final BlockingQueue<Object> queue;
+    private final Object endOfInput = new Object();
+
+    public IndexingPipeline(int nWorkers) {
+        this.nWorkers = Math.max(1, nWorkers);
+        this.queue = new ArrayBlockingQueue<>(this.nWorkers * QUEUE_SIZE_PER_WORKER);
+    }
+
+    /**
+     * Runs the worker on every item fed by the source and blocks until all of them are processed.
+     *
+     * @return number of items handed to the workers
+     */
+    public int run(Source<T> source, Consumer<T> worker) throws InterruptedException, IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(nWorkers, runnable -> {
+            Thread thread = new Thread(runnable, "lfind-indexer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < nWorkers; i++) {
+            futures.add(workers.submit(() -> drain(worker)));
+        }
+
+        AtomicInteger nItems = new AtomicInteger();
+
+        try {
+            source.feed(item -> {
+                put(item);
+                nItems.incrementAndGet();
+            });
+        } finally {
+            // one end marker per worker so that every worker terminates
+            for (int i = 0; i < nWorkers; i++) {
+                queue.put(endOfInput);
+            }
+
+            workers.shutdown();
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                log.severe("indexing worker failed: " + e.getCause());
+            }
+        }
+
+        return nItems.get();
+    }
+
+    private void put(T item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drain(Consumer<T> worker) {
+        while (true) {
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (item == endOfInput)
+                return;
+
+            try {
+                worker.accept((T) item);
+            } catch (RuntimeException e) {
+                // keep the worker alive, otherwise the walker would block on a full queue
+                log.severe("ERROR while processing: " + item + " | " + e);
+            }
+        }
+    }
+}
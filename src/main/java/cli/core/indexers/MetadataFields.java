@@ -0,0 +1,84 @@
+package cli.core.indexers;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.File;
+import java.util.Locale;
+
+
+/**
+ * The file metadata both searchers index, to filter and sort on (see MetadataFilter): size and modification
+ * time as points (range filters) and numeric doc values (sort), the extension as a term and sorted doc
+ * values, the parent directory as sorted doc values, the depth below the root as a point and doc values.
+ * Size and modification time are stored as well, IndexedFiles reads them to diff a persistent index.
+ */
+public final class MetadataFields {
+    public static final String SIZE = "size";
+    public static final String MODIFIED = "modified";
+    public static final String EXTENSION = "extension";
+    public static final String PARENT = "parent";
+    public static final String DEPTH = "depth";
+
+    private MetadataFields() {}
+
+    public static void add(Document document, String absolutePath, String fileName, long size, long modified, int depth) {
+        addNumber(document, SIZE, size);
+        addNumber(document, MODIFIED, modified);
+        document.add(new StoredField(SIZE, size));
+        document.add(new StoredField(MODIFIED, modified));
+
+        addExtension(document, fileName);
+
+        int slash = absolutePath.lastIndexOf(File.separatorChar);
+        if (slash > 0)
+            document.add(new SortedDocValuesField(PARENT, new BytesRef(absolutePath.substring(0, slash))));
+
+        document.add(new IntPoint(DEPTH, depth));
+        document.add(new NumericDocValuesField(DEPTH, depth));
+    }
+
+    /**
+     * An archive entry: filterable like a file when the archive tells its size and time (-1 otherwise), but
+     * nothing is stored, it is not a walked file for IndexedFiles to check.
+     */
+    public static void addEntry(Document document, String fileName, long size, long modified) {
+        if (size >= 0)
+            addNumber(document, SIZE, size);
+
+        if (modified >= 0)
+            addNumber(document, MODIFIED, modified);
+
+        addExtension(document, fileName);
+    }
+
+    // lowercase, without the dot; empty for none
+    public static String extensionOf(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+
+        // a leading dot is a hidden file, not an extension
+        return dot <= 0? "": fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static void addNumber(Document document, String field, long value) {
+        document.add(new LongPoint(field, value));
+        document.add(new NumericDocValuesField(field, value));
+    }
+
+    private static void addExtension(Document document, String fileName) {
+        String extension = extensionOf(fileName);
+
+        if (extension.isEmpty())
+            return;
+
+        document.add(new StringField(EXTENSION, extension, Field.Store.NO));
+        document.add(new SortedDocValuesField(EXTENSION, new BytesRef(extension)));
+    }
+}
@@ -0,0 +1,86 @@
+package cli.core.indexers;
+
+import cli.core.enums.MimeType;
+import org.apache.tika.Tika;
+import org.apache.tika.mime.MediaType;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Resolves the {@link MimeType} of a file from its name first and only sniffs the content (Tika reads the
+ * magic bytes) when the name says nothing, i.e. no extension or one that Tika does not know.
+ * Name based results are cached per extension, so most files are never opened just to be detected.
+ * Safe to use from the indexing workers.
+ */
+public class MimeTypeDetector {
+    // common extensions that Tika does not know by name, with the type sniffing their content would give;
+    // every other extension is resolved (once) by Tika's name patterns
+    private static final Map<String, MimeType> KNOWN_EXTENSIONS = new HashMap<>();
+
+    // extension-less file names that are text
+    private static final Set<String> TEXT_FILE_NAMES = Set.of(
+            "makefile", "dockerfile", "license", "readme", "changelog", "authors", "notice", "jenkinsfile", "gemfile"
+    );
+
+    static {
+        known(MimeType.TEXT,
+                "kt", "kts", "gradle", "swift", "jsx", "ts", "tsx", "mjs", "vue", "scss", "toml", "zsh", "ps1");
+        known(MimeType.OTHER,
+                "so", "dylib", "o", "sqlite", "idx", "woff", "woff2", "pyc");
+    }
+
+    private static void known(MimeType mimeType, String... extensions) {
+        for (String extension : extensions) {
+            KNOWN_EXTENSIONS.put(extension, mimeType);
+        }
+    }
+
+    private final Tika tika = new Tika();
+    // extension -> type for the extensions Tika resolved by name
+    private final Map<String, MimeType> byExtension = new ConcurrentHashMap<>(KNOWN_EXTENSIONS);
+
+    /**
+     * Type of the file as told by its name, or null if only the content can tell.
+     * Never touches the file.
+     */
+    public MimeType detectByName(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+
+        // no extension (a leading dot is a hidden file, not an extension)
+        if (dot <= 0 || dot == name.length() - 1)
+            return TEXT_FILE_NAMES.contains(name) ? MimeType.TEXT : null;
+
+        String extension = name.substring(dot + 1);
+        MimeType mimeType = byExtension.get(extension);
+
+        if (mimeType == null) {
+            String detected = tika.detect(name);
+
+            // octet-stream is Tika's answer for a name it does not know
+            if (MediaType.OCTET_STREAM.toString().equals(detected))
+                return null;
+
+            mimeType = MimeType.parse(detected);
+            byExtension.putIfAbsent(extension, mimeType);
+        }
+
+        return mimeType;
+    }
+
+    /**
+     * Type of the file, sniffing the content only when the name is not enough.
+     */
+    public MimeType detect(Path file) throws IOException {
+        MimeType mimeType = detectByName(file.getFileName().toString());
+
+        return mimeType != null ? mimeType : MimeType.parse(tika.detect(file));
+    }
+}
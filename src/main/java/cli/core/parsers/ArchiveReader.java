@@ -0,0 +1,181 @@
+package cli.core.parsers;
+
+import lombok.Getter;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.io.input.CloseShieldInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+
+import static cli.config.GlobalLogger.log;
+
+
+/**
+ * Streams the entries of an archive (zip, jar, tar, ar, cpio..., possibly gzip or bzip2 compressed) to a
+ * visitor, without extracting anything to disk: each entry is read straight from the archive stream.
+ * A compressed file that is not an archive (e.g. a .log.gz) is a single entry, named like the file without its
+ * compression suffix. Entries that are archives themselves are opened in turn, up to maxDepth levels of nesting.
+ * Entries have virtual paths: the path of the archive, {@link #SEPARATOR}, the name of the entry in it.
+ * The format is told by the content, the name only decides which entries are archives.
+ */
+public class ArchiveReader {
+    public static final String SEPARATOR = "!/";
+
+    @Getter
+    public static class Entry {
+        private final String path;       // archive.zip!/docs/spec.pdf
+        private final String name;       // spec.pdf
+        private final long size;         // -1 if the archive does not tell
+        private final long modified;     // millis, -1 if the archive does not tell
+        private final InputStream stream;
+        private final int depth;         // 1 for the entries of the file itself
+
+        Entry(String path, String name, long size, long modified, InputStream stream, int depth) {
+            this.path = path;
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+            this.stream = stream;
+            this.depth = depth;
+        }
+    }
+
+    public interface EntryVisitor {
+        /**
+         * Reads (or not) the entry; the stream is only valid during the call.
+         *
+         * @return false to stop reading the archive
+         */
+        boolean visit(Entry entry) throws IOException;
+    }
+
+    private final int maxDepth;
+    private final Predicate<String> isArchive;
+
+    public ArchiveReader(int maxDepth, Predicate<String> isArchive) {
+        this.maxDepth = maxDepth;
+        this.isArchive = isArchive;
+    }
+
+    public static boolean isEntryPath(String path) {
+        return path.contains(SEPARATOR);
+    }
+
+    // the file holding the (outermost) archive of an entry
+    public static Path archiveOf(String entryPath) {
+        return Path.of(entryPath.substring(0, entryPath.indexOf(SEPARATOR)));
+    }
+
+    /**
+     * Streams the entries of the archive file to the visitor.
+     *
+     * @return the number of entries visited
+     */
+    public int read(Path archive, EntryVisitor visitor) throws IOException {
+        int[] nEntries = {0};
+
+        try (InputStream stream = Files.newInputStream(archive)) {
+            read(stream, archive.toAbsolutePath().toString(), archive.getFileName().toString(), 1, entry -> {
+                nEntries[0]++;
+                return visitor.visit(entry);
+            });
+        }
+
+        return nEntries[0];
+    }
+
+    // false once the visitor asked to stop
+    private boolean read(InputStream stream, String path, String name, int depth, EntryVisitor visitor) throws IOException {
+        InputStream in = new BufferedInputStream(stream);
+        String compressor = detectCompressor(in);
+
+        if (compressor != null) {
+            try {
+                in = new BufferedInputStream(new CompressorStreamFactory().createCompressorInputStream(compressor, in));
+            } catch (CompressorException e) {
+                // e.g. xz or zstd, whose libraries are not shipped
+                log.info("cannot decompress: " + path + " | " + e.getMessage());
+                return true;
+            }
+        }
+
+        String format = detectArchive(in);
+
+        if (format == null) {
+            if (compressor == null) {
+                log.info("not an archive: " + path);
+                return true;
+            }
+
+            // a single compressed file
+            String entryName = stripExtension(name);
+            return visitEntry(new Entry(path + SEPARATOR + entryName, entryName, -1, -1, CloseShieldInputStream.wrap(in), depth), visitor);
+        }
+
+        ArchiveInputStream<? extends ArchiveEntry> archive;
+        try {
+            archive = new ArchiveStreamFactory().createArchiveInputStream(format, in);
+        } catch (ArchiveException e) {
+            // e.g. 7z, which needs random access
+            log.info("cannot stream archive: " + path + " | " + e.getMessage());
+            return true;
+        }
+
+        ArchiveEntry archiveEntry;
+        while ((archiveEntry = archive.getNextEntry()) != null) {
+            if (archiveEntry.isDirectory() || !archive.canReadEntryData(archiveEntry))
+                continue;
+
+            String entryPath = archiveEntry.getName();
+            String entryName = entryPath.substring(entryPath.lastIndexOf('/') + 1);
+            long modified = archiveEntry.getLastModifiedDate() == null? -1: archiveEntry.getLastModifiedDate().getTime();
+
+            // the parsers may close the entry stream, which would close the archive
+            Entry entry = new Entry(path + SEPARATOR + entryPath, entryName, archiveEntry.getSize(), modified,
+                    CloseShieldInputStream.wrap(archive), depth);
+
+            if (!visitEntry(entry, visitor))
+                return false;
+        }
+
+        return true;
+    }
+
+    private boolean visitEntry(Entry entry, EntryVisitor visitor) throws IOException {
+        if (entry.getDepth() < maxDepth && isArchive.test(entry.getName()))
+            return read(entry.getStream(), entry.getPath(), entry.getName(), entry.getDepth() + 1, visitor);
+
+        return visitor.visit(entry);
+    }
+
+    private static String detectCompressor(InputStream in) {
+        try {
+            return CompressorStreamFactory.detect(in);
+        } catch (CompressorException e) {
+            return null;
+        }
+    }
+
+    private static String detectArchive(InputStream in) {
+        try {
+            return ArchiveStreamFactory.detect(in);
+        } catch (ArchiveException e) {
+            return null;
+        }
+    }
+
+    private static String stripExtension(String name) {
+        int dot = name.lastIndexOf('.');
+
+        return dot > 0? name.substring(0, dot): name;
+    }
+}
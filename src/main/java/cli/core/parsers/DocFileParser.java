@@ -26,6 +26,14 @@ public class DocFileParser implements IParser {
         }
     }
 
+    @Override
+    @SneakyThrows
+    public void readContent(InputStream stream, Consumer<String> consumer) {
+        try (XWPFDocument document = new XWPFDocument(stream)) {
+            readContent(document, consumer);
+        }
+    }
+
     private void readContent(XWPFDocument document, Consumer<String> consumer) {
         // Read paragraphs
         for (XWPFParagraph paragraph : document.getParagraphs()) {
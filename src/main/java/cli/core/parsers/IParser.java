@@ -2,8 +2,12 @@ package cli.core.parsers;
 
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.function.Consumer;
 
 public interface IParser {
     void readContent(File file, Consumer<String> consumer);
+
+    // e.g. an entry read straight from an archive
+    void readContent(InputStream stream, Consumer<String> consumer);
 }
@@ -0,0 +1,299 @@
+package cli.core.parsers;
+
+import cli.metrics.Timer;
+import lombok.Getter;
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+import static cli.config.GlobalLogger.log;
+import static cli.metrics.Metrics.metrics;
+
+
+/**
+ * Runs the parsers under per-file limits, so that a pathological document cannot stall or sink the build:
+ * a file bigger than maxBytes is not opened, extraction stops after maxChars characters (the file is indexed
+ * truncated), and a parse still running after the timeout is abandoned (the file is skipped).
+ * Parses run on a pool of daemon threads while the indexing thread waits on them; a parser that ignores the
+ * interrupt keeps its thread until it returns, but its output is dropped.
+ * Outcomes are counted for the report at the end of the build, and in the metrics along with the parse times.
+ * Safe to use from the indexing workers.
+ */
+public class ParseSupervisor implements Closeable {
+    public enum Outcome {
+        PARSED,
+        TRUNCATED,
+        TOO_LARGE,
+        TIMED_OUT,
+        FAILED,
+        // streamed: timed out or failed after some of the text was read, which is indexed
+        PARTIAL
+    }
+
+    @Getter
+    public static class Result {
+        private final Outcome outcome;
+        private final List<String> chunks;   // text as emitted by the parser: lines, pages, paragraphs
+
+        private Result(Outcome outcome, List<String> chunks) {
+            this.outcome = outcome;
+            this.chunks = chunks;
+        }
+
+        // text extracted before, e.g. kept in a cache
+        public static Result parsed(List<String> chunks) {
+            return new Result(Outcome.PARSED, chunks);
+        }
+
+        public boolean hasContent() {
+            return outcome == Outcome.PARSED || outcome == Outcome.TRUNCATED;
+        }
+    }
+
+    // runs a parser, handing the text to the consumer
+    private interface Extraction {
+        void run(Consumer<String> consumer) throws IOException;
+    }
+
+    // thrown from the consumer to stop the parser once the character limit is reached
+    private static class StopParsing extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StopParsing() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxChars;
+    private final long timeoutMillis;
+    private final ExecutorService executor;
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(Outcome.values().length);
+
+    public ParseSupervisor(long maxBytes, long maxChars, long timeoutMillis) {
+        this.maxBytes = maxBytes;
+        this.maxChars = maxChars;
+        this.timeoutMillis = timeoutMillis;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "lfind-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public boolean isTooLarge(long size) {
+        return size > maxBytes;
+    }
+
+    /**
+     * @param timer gets the time spent parsing
+     */
+    public Result parse(IParser parser, File file, long size, Timer timer) {
+        return parse(consumer -> parser.readContent(file, consumer), file.toString(), size, timer);
+    }
+
+    /**
+     * Parses a stream, e.g. an archive entry, whose size may be unknown (-1): reading stops at maxBytes.
+     * The stream must not be read by anyone else until the parse is over, which it may not be after a
+     * timeout.
+     */
+    public Result parse(IParser parser, InputStream stream, String name, long size, Timer timer) {
+        return parse(consumer -> {
+            BoundedInputStream.Builder bounded = BoundedInputStream.builder();
+            bounded.setInputStream(stream);
+            bounded.setMaxCount(maxBytes);
+            bounded.setPropagateClose(false);
+
+            parser.readContent(bounded.get(), consumer);
+        }, name, size, timer);
+    }
+
+    /**
+     * Parses the file while the returned text is read, rather than collecting the whole of it first: memory is
+     * bounded by a few chunks (lines, pages, paragraphs) instead of the size of the document. The limits are
+     * the ones of {@link #parse}, except that a file that times out or fails keeps what was read before
+     * (its outcome is then {@link Outcome#PARTIAL}). The outcome is counted when the text is closed.
+     *
+     * @param tee gets the chunks as they are read, e.g. to cache the text
+     * @param timer gets the time spent parsing, not the time waiting for the reader
+     * @return null if the file is too large to be parsed
+     */
+    public StreamedText stream(IParser parser, File file, long size, Consumer<String> tee, Timer timer) {
+        String name = file.toString();
+
+        if (isTooLarge(size)) {
+            log.info("skipping file over " + maxBytes + " bytes: " + name);
+            count(Outcome.TOO_LARGE);
+            return null;
+        }
+
+        StreamedText text = new StreamedText(name, timeoutMillis, tee, closed -> {
+            count(closed.getOutcome());
+
+            if (closed.getOutcome() == Outcome.TRUNCATED)
+                log.info("truncated to " + maxChars + " characters: " + name);
+        });
+
+        text.setProducer(executor.submit(() -> {
+            long start = System.nanoTime();
+            long[] nChars = {0};
+            long[] waitedNanos = {0};
+            AtomicBoolean truncated = new AtomicBoolean();
+            AtomicBoolean abandoned = new AtomicBoolean();
+
+            try {
+                parser.readContent(file, chunk -> {
+                    long room = maxChars - nChars[0];
+                    truncated.set(chunk.length() > room);
+
+                    String kept = truncated.get()? chunk.substring(0, (int) room): chunk;
+                    nChars[0] += kept.length();
+
+                    long offered = System.nanoTime();
+                    abandoned.set(!text.offer(kept));
+                    waitedNanos[0] += System.nanoTime() - offered;
+
+                    if (truncated.get() || abandoned.get())
+                        throw new StopParsing();
+                });
+
+                text.finish(Outcome.PARSED);
+            } catch (Throwable e) {
+                // a parser may wrap the stop signal in its own exception
+                if (truncated.get()) {
+                    text.finish(Outcome.TRUNCATED);
+                } else if (!abandoned.get()) {
+                    log.severe("cannot parse: " + name + " | " + e);
+                    text.finish(Outcome.FAILED);
+                }
+            } finally {
+                timer.record(System.nanoTime() - start - waitedNanos[0]);
+            }
+        }));
+
+        return text;
+    }
+
+    private Result parse(Extraction extraction, String name, long size, Timer timer) {
+        Result result = supervise(extraction, name, size, timer);
+        count(result.getOutcome());
+
+        return result;
+    }
+
+    private void count(Outcome outcome) {
+        counts.incrementAndGet(outcome.ordinal());
+        metrics.count("files." + outcome.name().toLowerCase(Locale.ROOT));
+    }
+
+    private Result supervise(Extraction extraction, String name, long size, Timer timer) {
+        if (isTooLarge(size)) {
+            log.info("skipping file over " + maxBytes + " bytes: " + name);
+            return new Result(Outcome.TOO_LARGE, List.of());
+        }
+
+        // only touched by the parse thread until the future completes
+        List<String> chunks = new ArrayList<>();
+        long[] nChars = {0};
+        AtomicBoolean truncated = new AtomicBoolean();
+        AtomicBoolean abandoned = new AtomicBoolean();
+
+        Future<?> future = executor.submit(() -> {
+            long start = System.nanoTime();
+
+            try {
+                extraction.run(text -> {
+                    if (abandoned.get() || truncated.get())
+                        throw new StopParsing();
+
+                    long room = maxChars - nChars[0];
+
+                    if (text.length() > room) {
+                        chunks.add(text.substring(0, (int) room));
+                        nChars[0] = maxChars;
+                        truncated.set(true);
+                        throw new StopParsing();
+                    }
+
+                    chunks.add(text);
+                    nChars[0] += text.length();
+                });
+            } catch (StopParsing e) {
+                // limit reached, what was extracted so far is kept
+            } finally {
+                timer.stop(start);
+            }
+
+            return null;
+        });
+
+        try {
+            future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            abandoned.set(true);
+            future.cancel(true);
+            log.severe("parse timed out after " + timeoutMillis + "ms: " + name);
+            return new Result(Outcome.TIMED_OUT, List.of());
+        } catch (ExecutionException e) {
+            // a parser may wrap the stop signal in its own exception
+            if (!truncated.get()) {
+                log.severe("cannot parse: " + name + " | " + e.getCause());
+                return new Result(Outcome.FAILED, List.of());
+            }
+        } catch (InterruptedException e) {
+            abandoned.set(true);
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return new Result(Outcome.FAILED, List.of());
+        }
+
+        if (truncated.get())
+            log.info("truncated to " + maxChars + " characters: " + name);
+
+        return new Result(truncated.get()? Outcome.TRUNCATED: Outcome.PARSED, chunks);
+    }
+
+    public int getCount(Outcome outcome) {
+        return counts.get(outcome.ordinal());
+    }
+
+    /**
+     * One line about the files that were skipped or truncated, null if there were none.
+     */
+    public String report() {
+        List<String> parts = new ArrayList<>();
+
+        if (getCount(Outcome.TOO_LARGE) > 0)
+            parts.add(String.format("%d skipped over %d MB", getCount(Outcome.TOO_LARGE), maxBytes >> 20));
+        if (getCount(Outcome.TIMED_OUT) > 0)
+            parts.add(String.format("%d skipped after a %ds parse timeout", getCount(Outcome.TIMED_OUT), timeoutMillis / 1000));
+        if (getCount(Outcome.FAILED) > 0)
+            parts.add(String.format("%d skipped as unreadable", getCount(Outcome.FAILED)));
+        if (getCount(Outcome.TRUNCATED) > 0)
+            parts.add(String.format("%d truncated to %d characters", getCount(Outcome.TRUNCATED), maxChars));
+        if (getCount(Outcome.PARTIAL) > 0)
+            parts.add(String.format("%d indexed up to a parse timeout or error", getCount(Outcome.PARTIAL)));
+
+        return parts.isEmpty()? null: "files: " + String.join(", ", parts);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -2,37 +2,72 @@ package cli.core.parsers;
 
 import lombok.SneakyThrows;
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.text.PDFTextStripper;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
 import java.util.function.Consumer;
 
 public class PdfFileParser implements IParser {
-    PDFTextStripper pdfTextStripper;
+    // buffers of a document beyond this go to a temp file instead of the heap
+    private static final long MAX_MAIN_MEMORY_BYTES = 16L << 20;
 
-    public PdfFileParser() {
-        this.pdfTextStripper = new PDFTextStripper();
+    /**
+     * Strips the whole document in one pass and hands the text of every page to the consumer once the page
+     * is written, instead of stripping it again for each page range. Lines are joined by spaces as they are
+     * written, so that a page is a single line of text.
+     */
+    private static class PageStripper extends PDFTextStripper {
+        private final StringWriter page = new StringWriter();
+        private final Consumer<String> consumer;
+
+        PageStripper(Consumer<String> consumer) {
+            this.consumer = consumer;
+
+            setLineSeparator(" ");
+            setPageEnd("");
+        }
+
+        void strip(PDDocument document) throws IOException {
+            writeText(document, page);
+        }
+
+        @Override
+        protected void startPage(PDPage pdPage) throws IOException {
+            super.startPage(pdPage);
+            page.getBuffer().setLength(0);
+        }
+
+        @Override
+        protected void endPage(PDPage pdPage) throws IOException {
+            super.endPage(pdPage);
+            consumer.accept(page.toString());
+        }
     }
 
     @SneakyThrows
     @Override
     public void readContent(File file, Consumer<String> consumer) {
         // Load the PDF document
-        try(PDDocument document = Loader.loadPDF(file)) {
-            readContent(document, consumer);
+        try(PDDocument document = Loader.loadPDF(file, MemoryUsageSetting.setupMixed(MAX_MAIN_MEMORY_BYTES).streamCache)) {
+            // the stripper keeps per-document state, so every call gets its own instance
+            // (the parser itself is shared between the indexing workers)
+            new PageStripper(consumer).strip(document);
         }
     }
 
-    private void readContent(PDDocument document, Consumer<String> consumer) throws IOException {
-        // Extract text line by line
-        for (int page = 1; page <= document.getNumberOfPages(); page++) {
-            pdfTextStripper.setStartPage(page);
-            pdfTextStripper.setEndPage(page);
-            String pageText = pdfTextStripper.getText(document).replaceAll("\\r?\\n", " ");
-
-            consumer.accept(pageText);
+    @SneakyThrows
+    @Override
+    public void readContent(InputStream stream, Consumer<String> consumer) {
+        // a PDF needs random access, the stream is buffered in memory (the caller bounds its size)
+        try(PDDocument document = Loader.loadPDF(new RandomAccessReadBuffer(stream))) {
+            new PageStripper(consumer).strip(document);
         }
     }
 }
@@ -0,0 +1,178 @@
+package cli.core.parsers;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static cli.config.GlobalLogger.log;
+
+
+/**
+ * The text of a file as it is parsed (see {@link ParseSupervisor#stream}): the parser runs on another thread
+ * and hands its chunks over through a small queue, so it is never more than a few chunks ahead of the reader.
+ * The text ends early, with what was read so far, if the parser is not done by the deadline or fails: a text
+ * cut short that way is {@link ParseSupervisor.Outcome#PARTIAL}, unless none of it was read.
+ * The outcome is final once the reader is closed.
+ */
+public class StreamedText extends Reader {
+    private static final int QUEUE_CHUNKS = 4;
+    private static final long OFFER_MILLIS = 100;
+    // marks the end of the text in the queue
+    private static final String END = new String();
+
+    private final BlockingQueue<String> chunks = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+    private final String name;
+    private final long deadlineNanos;
+    private final Consumer<String> tee;
+    private final Consumer<StreamedText> onClose;
+
+    private Future<?> producer;
+    private volatile boolean closed;
+    private volatile ParseSupervisor.Outcome producerOutcome = ParseSupervisor.Outcome.PARSED;
+    @Getter
+    private ParseSupervisor.Outcome outcome;
+
+    private String chunk = "";
+    private int position;
+    private boolean separated = true;
+    private boolean ended;
+    private boolean hasText;
+
+    StreamedText(String name, long timeoutMillis, Consumer<String> tee, Consumer<StreamedText> onClose) {
+        this.name = name;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.tee = tee;
+        this.onClose = onClose;
+    }
+
+    void setProducer(Future<?> producer) {
+        this.producer = producer;
+    }
+
+    /**
+     * Producer side: waits for room in the queue.
+     *
+     * @return false if the reader is gone, the parser should stop
+     */
+    boolean offer(String text) {
+        try {
+            while (!closed) {
+                if (chunks.offer(text, OFFER_MILLIS, TimeUnit.MILLISECONDS))
+                    return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return false;
+    }
+
+    // producer side, once the parser is done
+    void finish(ParseSupervisor.Outcome outcome) {
+        producerOutcome = outcome;
+        offer(END);
+    }
+
+    /**
+     * Waits for the first chunk of the text, like {@link ParseSupervisor.Result#hasContent}: false if the parse
+     * timed out or failed before any text. To be asked before the text is read.
+     */
+    public boolean hasContent() throws IOException {
+        while (position == chunk.length() && !ended) {
+            if (!nextChunk())
+                break;
+        }
+
+        return !ended || (outcome != ParseSupervisor.Outcome.TIMED_OUT && outcome != ParseSupervisor.Outcome.FAILED);
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+
+        while (position == chunk.length()) {
+            // chunks are words apart, like the values of a field
+            if (!separated) {
+                separated = true;
+                buffer[offset] = ' ';
+                return 1;
+            }
+
+            if (ended || !nextChunk())
+                return -1;
+        }
+
+        int n = Math.min(length, chunk.length() - position);
+        chunk.getChars(position, position + n, buffer, offset);
+        position += n;
+
+        return n;
+    }
+
+    // false at the end of the text
+    private boolean nextChunk() throws IOException {
+        String next;
+
+        try {
+            next = chunks.poll(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while parsing: " + name);
+        }
+
+        if (next == null) {
+            log.severe("parse timed out" + (hasText? ", indexing what was read so far: ": ": ") + name);
+            end(cutShort(ParseSupervisor.Outcome.TIMED_OUT));
+            return false;
+        }
+
+        if (next == END) {
+            end(producerOutcome == ParseSupervisor.Outcome.FAILED? cutShort(producerOutcome): producerOutcome);
+            return false;
+        }
+
+        hasText |= !next.isEmpty();
+
+        tee.accept(next);
+        chunk = next;
+        position = 0;
+        separated = false;
+
+        return true;
+    }
+
+    // the text read before the parse stopped is in the index
+    private ParseSupervisor.Outcome cutShort(ParseSupervisor.Outcome outcome) {
+        return hasText? ParseSupervisor.Outcome.PARTIAL: outcome;
+    }
+
+    private void end(ParseSupervisor.Outcome outcome) {
+        this.outcome = outcome;
+        this.ended = true;
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+
+        closed = true;
+
+        // not read to the end, e.g. the document failed: the parser is of no use anymore
+        if (!ended) {
+            end(ParseSupervisor.Outcome.FAILED);
+            producer.cancel(true);
+        } else if (outcome == ParseSupervisor.Outcome.TIMED_OUT) {
+            producer.cancel(true);
+        }
+
+        onClose.accept(this);
+    }
+}
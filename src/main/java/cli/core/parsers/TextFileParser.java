@@ -1,23 +1,201 @@
 package cli.core.parsers;
 
 import lombok.SneakyThrows;
-import java.io.BufferedReader;
+
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.function.Consumer;
 
+import static cli.config.GlobalLogger.log;
+
 
+/**
+ * Reads text in big chunks rather than line by line: the bytes are read through a channel, decoded in bulk and
+ * handed to the consumer about {@link #CHUNK_CHARS} characters at a time, so that a file costs about its size
+ * to index, not its number of lines. A chunk ends with a line break, unless a single line is longer than a
+ * chunk (it is then cut at a space): whoever needs the lines splits the chunks on '\n' and counts them.
+ * The charset is told by the byte order mark if there is one, otherwise the text is UTF-8 if it decodes as such
+ * and windows-1252 (which decodes anything) if not. Files with NUL bytes in their first block are binary and
+ * yield no text.
+ */
 public class TextFileParser implements IParser {
+    public static final int CHUNK_CHARS = 64 * 1024;
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    // like git, NUL bytes at the start make a file binary
+    private static final int BINARY_PROBE_BYTES = 8000;
+    private static final Charset FALLBACK_CHARSET = Charset.forName("windows-1252");
+
     @Override
     @SneakyThrows
     public void readContent(File file, Consumer<String> consumer) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            read(channel, file.toString(), consumer);
+        }
+    }
+
+    @Override
+    @SneakyThrows
+    public void readContent(InputStream stream, Consumer<String> consumer) {
+        try (ReadableByteChannel channel = Channels.newChannel(stream)) {
+            read(channel, "stream", consumer);
+        }
+    }
+
+    private void read(ReadableByteChannel channel, String name, Consumer<String> consumer) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_BYTES);
+        boolean endOfInput = fill(channel, bytes);
+        bytes.flip();
 
-            // Read lines from the file until the end of the file (null is returned)
-            while ((line = reader.readLine()) != null) {
-                consumer.accept(line);
-            }
+        if (isBinary(bytes)) {
+            log.info("binary, skipping: " + name);
+            return;
         }
+
+        CharsetDecoder decoder = detectCharset(bytes, endOfInput).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_BYTES);
+        StringBuilder text = new StringBuilder(CHUNK_CHARS + BUFFER_BYTES);
+
+        while (true) {
+            decode(decoder, bytes, chars, text, endOfInput);
+            emitChunks(text, consumer);
+
+            if (endOfInput)
+                break;
+
+            // an incomplete character at the end of the buffer stays for the next read
+            bytes.compact();
+            endOfInput = fill(channel, bytes);
+            bytes.flip();
+        }
+
+        decoder.flush(chars);
+        drain(chars, text);
+
+        if (text.length() > 0)
+            consumer.accept(text.toString());
+    }
+
+    // reads until the buffer is full or the input ends; true at the end of the input
+    private static boolean fill(ReadableByteChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes) < 0)
+                return true;
+        }
+
+        return false;
+    }
+
+    private static void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars, StringBuilder text, boolean endOfInput) {
+        CoderResult result;
+
+        do {
+            result = decoder.decode(bytes, chars, endOfInput);
+            drain(chars, text);
+        } while (result.isOverflow());
+    }
+
+    private static void drain(CharBuffer chars, StringBuilder text) {
+        chars.flip();
+        text.append(chars);
+        chars.clear();
+    }
+
+    // full chunks only, the rest waits for more text
+    private static void emitChunks(StringBuilder text, Consumer<String> consumer) {
+        while (text.length() >= CHUNK_CHARS) {
+            int end = text.lastIndexOf("\n") + 1;
+
+            if (end == 0)
+                end = cutLongLine(text);
+
+            consumer.accept(text.substring(0, end));
+            text.delete(0, end);
+        }
+    }
+
+    // no line break at all: cut at the last space of the first chunk, or in the middle of a word if there is none
+    private static int cutLongLine(StringBuilder text) {
+        for (int i = CHUNK_CHARS - 1; i > 0; i--) {
+            if (Character.isWhitespace(text.charAt(i)))
+                return i + 1;
+        }
+
+        return Character.isHighSurrogate(text.charAt(CHUNK_CHARS - 1))? CHUNK_CHARS - 1: CHUNK_CHARS;
+    }
+
+    private static boolean isBinary(ByteBuffer bytes) {
+        int end = Math.min(bytes.limit(), BINARY_PROBE_BYTES);
+
+        // UTF-16 has NUL bytes in every other position, but a byte order mark too
+        if (hasUtf16Bom(bytes))
+            return false;
+
+        for (int i = 0; i < end; i++) {
+            if (bytes.get(i) == 0)
+                return true;
+        }
+
+        return false;
+    }
+
+    // skips the byte order mark, if any
+    private static Charset detectCharset(ByteBuffer bytes, boolean endOfInput) {
+        if (startsWith(bytes, 0xEF, 0xBB, 0xBF)) {
+            bytes.position(3);
+            return StandardCharsets.UTF_8;
+        }
+
+        if (startsWith(bytes, 0xFE, 0xFF)) {
+            bytes.position(2);
+            return StandardCharsets.UTF_16BE;
+        }
+
+        if (startsWith(bytes, 0xFF, 0xFE)) {
+            bytes.position(2);
+            return StandardCharsets.UTF_16LE;
+        }
+
+        return isUtf8(bytes.duplicate(), endOfInput)? StandardCharsets.UTF_8: FALLBACK_CHARSET;
+    }
+
+    private static boolean hasUtf16Bom(ByteBuffer bytes) {
+        return startsWith(bytes, 0xFE, 0xFF) || startsWith(bytes, 0xFF, 0xFE);
+    }
+
+    private static boolean startsWith(ByteBuffer bytes, int... prefix) {
+        if (bytes.limit() < prefix.length)
+            return false;
+
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes.get(i) & 0xFF) != prefix[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    // the first block decodes as UTF-8 (plain ASCII does); a character cut by the end of the block is fine
+    private static boolean isUtf8(ByteBuffer bytes, boolean endOfInput) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer chars = CharBuffer.allocate(bytes.remaining());
+
+        return !decoder.decode(bytes, chars, endOfInput).isError();
     }
 }
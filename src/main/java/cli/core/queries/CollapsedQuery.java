@@ -0,0 +1,310 @@
+package cli.core.queries;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+
+/**
+ * Matches what a query matches, but a single document per value of a (sorted doc values) field: of the
+ * matching documents that share a value, the one with the lowest value of a stored field stands for the others
+ * (the lowest path of the copies of a file). Only matches are collapsed, a document the query or its filters
+ * leave out never hides one that matches. The query is searched once, with the scores, when the weight is
+ * created, so the cost is that search plus a pass over its matches; which document is kept depends neither on
+ * the order of the segments nor on the threads. Documents without a value are never collapsed.
+ */
+public class CollapsedQuery extends Query {
+    private final Query query;
+    private final String field;
+    private final String orderField;
+
+    public CollapsedQuery(Query query, String field, String orderField) {
+        this.query = query;
+        this.field = field;
+        this.orderField = orderField;
+    }
+
+    // the matches of a segment, in doc id order, and the ordinal of their value (-1 for none)
+    private static class LeafMatches {
+        int[] docs = new int[16];
+        float[] scores = new float[16];
+        int[] ords = new int[16];
+        int size;
+
+        void add(int doc, float score, int ord) {
+            if (size == docs.length) {
+                docs = ArrayUtil.grow(docs, size + 1);
+                scores = ArrayUtil.growExact(scores, docs.length);
+                ords = ArrayUtil.growExact(ords, docs.length);
+            }
+
+            docs[size] = doc;
+            scores[size] = score;
+            ords[size] = ord;
+            size++;
+        }
+    }
+
+    // the match standing for its value so far, its order value is loaded once another match has the same value
+    private static class Representative {
+        final int leaf;
+        final int index;
+        String orderValue;
+
+        Representative(int leaf, int index) {
+            this.leaf = leaf;
+            this.index = index;
+        }
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafMatches[] matches = collectMatches(searcher, leaves, scoreMode.needsScores());
+
+        removeCollapsed(leaves, matches);
+
+        return new Weight(this) {
+            @Override
+            public Scorer scorer(LeafReaderContext context) {
+                LeafMatches leafMatches = matches[context.ord];
+
+                if (leafMatches == null || leafMatches.size == 0)
+                    return null;
+
+                return new MatchesScorer(this, leafMatches, boost);
+            }
+
+            @Override
+            public Explanation explain(LeafReaderContext context, int doc) {
+                LeafMatches leafMatches = matches[context.ord];
+                int index = leafMatches == null? -1: Arrays.binarySearch(leafMatches.docs, 0, leafMatches.size, doc);
+
+                return index < 0
+                        ? Explanation.noMatch("no match, or collapsed into another document with the same " + field)
+                        : Explanation.match(leafMatches.scores[index] * boost, "collapsed by " + field);
+            }
+
+            @Override
+            public boolean isCacheable(LeafReaderContext context) {
+                // whether a document is kept depends on the other segments
+                return false;
+            }
+        };
+    }
+
+    // segments are searched concurrently if the searcher does, each one by a single collector
+    private LeafMatches[] collectMatches(IndexSearcher searcher, List<LeafReaderContext> leaves, boolean needsScores) throws IOException {
+        LeafMatches[] matches = new LeafMatches[leaves.size()];
+
+        searcher.search(query, new CollectorManager<Collector, Void>() {
+            @Override
+            public Collector newCollector() {
+                return new Collector() {
+                    @Override
+                    public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+                        LeafMatches leafMatches = new LeafMatches();
+                        SortedDocValues values = context.reader().getSortedDocValues(field);
+                        matches[context.ord] = leafMatches;
+
+                        return new LeafCollector() {
+                            private Scorable scorer;
+
+                            @Override
+                            public void setScorer(Scorable scorer) {
+                                this.scorer = scorer;
+                            }
+
+                            @Override
+                            public void collect(int doc) throws IOException {
+                                int ord = values != null && values.advanceExact(doc)? values.ordValue(): -1;
+
+                                leafMatches.add(doc, needsScores? scorer.score(): 0f, ord);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public ScoreMode scoreMode() {
+                        return needsScores? ScoreMode.COMPLETE: ScoreMode.COMPLETE_NO_SCORES;
+                    }
+                };
+            }
+
+            @Override
+            public Void reduce(Collection<Collector> collectors) {
+                return null;
+            }
+        });
+
+        return matches;
+    }
+
+    // keeps one match per value, the others are compacted away
+    private void removeCollapsed(List<LeafReaderContext> leaves, LeafMatches[] matches) throws IOException {
+        Map<BytesRef, Representative> representatives = new HashMap<>();
+        StoredFields[] storedFields = new StoredFields[leaves.size()];
+        boolean[][] collapsed = new boolean[leaves.size()][];
+
+        for (LeafReaderContext context : leaves) {
+            LeafMatches leafMatches = matches[context.ord];
+            SortedDocValues values = context.reader().getSortedDocValues(field);
+
+            if (leafMatches == null || values == null)
+                continue;
+
+            collapsed[context.ord] = new boolean[leafMatches.size];
+
+            for (int i = 0; i < leafMatches.size; i++) {
+                if (leafMatches.ords[i] < 0)
+                    continue;
+
+                BytesRef value = BytesRef.deepCopyOf(values.lookupOrd(leafMatches.ords[i]));
+                Representative challenger = new Representative(context.ord, i);
+                Representative current = representatives.putIfAbsent(value, challenger);
+
+                if (current == null)
+                    continue;
+
+                // the lowest order value wins, it is the same whatever the order the matches come in
+                if (orderValue(challenger, leaves, matches, storedFields).compareTo(orderValue(current, leaves, matches, storedFields)) < 0) {
+                    representatives.put(value, challenger);
+                    collapsed[current.leaf][current.index] = true;
+                } else {
+                    collapsed[context.ord][i] = true;
+                }
+            }
+        }
+
+        for (int leaf = 0; leaf < matches.length; leaf++) {
+            if (collapsed[leaf] != null)
+                compact(matches[leaf], collapsed[leaf]);
+        }
+    }
+
+    private String orderValue(Representative representative, List<LeafReaderContext> leaves, LeafMatches[] matches, StoredFields[] storedFields) throws IOException {
+        if (representative.orderValue == null) {
+            if (storedFields[representative.leaf] == null)
+                storedFields[representative.leaf] = leaves.get(representative.leaf).reader().storedFields();
+
+            int doc = matches[representative.leaf].docs[representative.index];
+            String value = storedFields[representative.leaf].document(doc, Set.of(orderField)).get(orderField);
+            representative.orderValue = value == null? "": value;
+        }
+
+        return representative.orderValue;
+    }
+
+    private static void compact(LeafMatches leafMatches, boolean[] collapsed) {
+        int size = 0;
+
+        for (int i = 0; i < leafMatches.size; i++) {
+            if (collapsed[i])
+                continue;
+
+            leafMatches.docs[size] = leafMatches.docs[i];
+            leafMatches.scores[size] = leafMatches.scores[i];
+            size++;
+        }
+
+        leafMatches.size = size;
+    }
+
+    // the kept matches of a segment, with the scores they had in the query
+    private static class MatchesScorer extends Scorer {
+        private final LeafMatches matches;
+        private final float boost;
+        private int index = -1;
+
+        MatchesScorer(Weight weight, LeafMatches matches, float boost) {
+            super(weight);
+            this.matches = matches;
+            this.boost = boost;
+        }
+
+        @Override
+        public int docID() {
+            return index < 0? -1: index >= matches.size? DocIdSetIterator.NO_MORE_DOCS: matches.docs[index];
+        }
+
+        @Override
+        public float score() {
+            return matches.scores[index] * boost;
+        }
+
+        @Override
+        public float getMaxScore(int upTo) {
+            return Float.MAX_VALUE;
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            return new DocIdSetIterator() {
+                @Override
+                public int docID() {
+                    return MatchesScorer.this.docID();
+                }
+
+                @Override
+                public int nextDoc() {
+                    index = Math.min(index + 1, matches.size);
+                    return docID();
+                }
+
+                @Override
+                public int advance(int target) {
+                    int found = Arrays.binarySearch(matches.docs, Math.max(index + 1, 0), matches.size, target);
+                    index = found >= 0? found: -found - 1;
+                    return docID();
+                }
+
+                @Override
+                public long cost() {
+                    return matches.size;
+                }
+            };
+        }
+    }
+
+    @Override
+    public Query rewrite(IndexSearcher searcher) throws IOException {
+        Query rewritten = query.rewrite(searcher);
+
+        return rewritten == query? this: new CollapsedQuery(rewritten, field, orderField);
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+        query.visit(visitor.getSubVisitor(BooleanClause.Occur.MUST, this));
+    }
+
+    @Override
+    public String toString(String field) {
+        return "collapsed(" + query.toString(field) + ", " + this.field + ")";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return sameClassAs(other)
+                && query.equals(((CollapsedQuery) other).query)
+                && field.equals(((CollapsedQuery) other).field)
+                && orderField.equals(((CollapsedQuery) other).orderField);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(), query, field, orderField);
+    }
+}
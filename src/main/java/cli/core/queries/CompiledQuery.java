@@ -0,0 +1,72 @@
+package cli.core.queries;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+
+import java.util.Objects;
+
+
+/**
+ * A query as a searcher compiled it, along with the part of it that searches the content, if any: the snippets
+ * of a match are looked up with that part alone, whatever filters the query was wrapped in.
+ * Searching it is searching the full query, which it rewrites to.
+ */
+public class CompiledQuery extends Query {
+    private final Query query;
+    private final Query contentQuery;
+
+    /**
+     * @param contentQuery the part of the query that searches the content, null if it only searches other fields
+     */
+    public CompiledQuery(Query query, Query contentQuery) {
+        this.query = query;
+        this.contentQuery = contentQuery;
+    }
+
+    public Query getContentQuery() {
+        return contentQuery;
+    }
+
+    // whether a query (e.g. an expression naming its fields) searches the field at all
+    public static boolean searchesField(Query query, String field) {
+        boolean[] found = {false};
+
+        query.visit(new QueryVisitor() {
+            @Override
+            public boolean acceptField(String visitedField) {
+                found[0] |= field.equals(visitedField);
+                return false;
+            }
+        });
+
+        return found[0];
+    }
+
+    @Override
+    public Query rewrite(IndexSearcher searcher) {
+        return query;
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+        query.visit(visitor);
+    }
+
+    @Override
+    public String toString(String field) {
+        return query.toString(field);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return sameClassAs(other)
+                && query.equals(((CompiledQuery) other).query)
+                && Objects.equals(contentQuery, ((CompiledQuery) other).contentQuery);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(), query, contentQuery);
+    }
+}
@@ -0,0 +1,188 @@
+package cli.core.queries;
+
+import cli.config.Config;
+import cli.core.indexers.MetadataFields;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.BytesRef;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+
+/**
+ * The --size, --newer and --ext filters, added to the queries of the searchers as FILTER clauses over the
+ * {@link MetadataFields}, and the --sort order of their matches. The filters do not score, they only narrow
+ * down what the query matches; the numeric ones can run on the points or the doc values, whichever is
+ * cheaper given the rest of the query.
+ */
+public class MetadataFilter {
+    private static final Pattern SIZE = Pattern.compile("(\\d+)([kmgt]?)b?");
+    private static final Pattern AGE = Pattern.compile("(\\d+)([smhdw])");
+
+    // --sort keys -> field, type
+    private static final Map<String, SortField> SORT_FIELDS = Map.of(
+            "size", new SortField(MetadataFields.SIZE, SortField.Type.LONG),
+            "modified", new SortField(MetadataFields.MODIFIED, SortField.Type.LONG),
+            "ext", new SortField(MetadataFields.EXTENSION, SortField.Type.STRING),
+            "dir", new SortField(MetadataFields.PARENT, SortField.Type.STRING),
+            "depth", new SortField(MetadataFields.DEPTH, SortField.Type.INT)
+    );
+
+    private final long minSize;
+    private final long maxSize;
+    private final long newerThan;
+    private final List<String> extensions;
+    private final Sort sort;
+
+    public MetadataFilter(Config config) {
+        this.minSize = config.getMinSize();
+        this.maxSize = config.getMaxSize();
+        this.newerThan = config.getNewerThan();
+        this.extensions = config.getExtensions().stream()
+                .map(extension -> extension.replaceFirst("^\\.", "").toLowerCase(Locale.ROOT))
+                .collect(Collectors.toList());
+        this.sort = config.getSort() == null? null: parseSort(config.getSort());
+    }
+
+    public boolean isEmpty() {
+        return minSize == Long.MIN_VALUE && maxSize == Long.MAX_VALUE && newerThan == Long.MIN_VALUE && extensions.isEmpty();
+    }
+
+    public void addClauses(BooleanQuery.Builder builder) {
+        if (minSize != Long.MIN_VALUE || maxSize != Long.MAX_VALUE)
+            builder.add(rangeQuery(MetadataFields.SIZE, minSize, maxSize), BooleanClause.Occur.FILTER);
+
+        if (newerThan != Long.MIN_VALUE)
+            builder.add(rangeQuery(MetadataFields.MODIFIED, newerThan, Long.MAX_VALUE), BooleanClause.Occur.FILTER);
+
+        if (!extensions.isEmpty()) {
+            List<BytesRef> terms = extensions.stream().map(BytesRef::new).collect(Collectors.toList());
+            builder.add(new TermInSetQuery(MetadataFields.EXTENSION, terms), BooleanClause.Occur.FILTER);
+        }
+    }
+
+    public Query apply(Query query) {
+        if (isEmpty())
+            return query;
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder().add(query, BooleanClause.Occur.MUST);
+        addClauses(builder);
+
+        return builder.build();
+    }
+
+    // null: by relevance
+    public Sort getSort() {
+        return sort;
+    }
+
+    private static Query rangeQuery(String field, long min, long max) {
+        // the points are best when the range is selective, the doc values when the rest of the query is
+        return new IndexOrDocValuesQuery(LongPoint.newRangeQuery(field, min, max), NumericDocValuesField.newSlowRangeQuery(field, min, max));
+    }
+
+    /**
+     * Sizes in bytes, with an optional K, M, G or T (binary) unit: +N is more than N, -N less than N,
+     * N..M between N and M, N exactly N.
+     *
+     * @return the smallest and largest size, inclusive
+     */
+    public static long[] parseSizeRange(String value) {
+        String range = value.trim().toLowerCase(Locale.ROOT);
+
+        if (range.startsWith("+")) {
+            long size = parseSize(range.substring(1));
+
+            if (size == Long.MAX_VALUE)
+                throw new IllegalArgumentException("no size is more than '" + range.substring(1) + "'");
+
+            return new long[]{size + 1, Long.MAX_VALUE};
+        }
+
+        if (range.startsWith("-"))
+            return new long[]{Long.MIN_VALUE, parseSize(range.substring(1)) - 1};
+
+        int dots = range.indexOf("..");
+        if (dots >= 0)
+            return new long[]{parseSize(range.substring(0, dots)), parseSize(range.substring(dots + 2))};
+
+        long size = parseSize(range);
+        return new long[]{size, size};
+    }
+
+    private static long parseSize(String value) {
+        Matcher matcher = SIZE.matcher(value);
+
+        if (!matcher.matches())
+            throw new IllegalArgumentException("not a size: '" + value + "'");
+
+        int shift = "kmgt".indexOf(matcher.group(2).isEmpty()? ' ': matcher.group(2).charAt(0));
+
+        // the number is only digits, it fails to parse when there are too many of them
+        try {
+            return Math.multiplyExact(Long.parseLong(matcher.group(1)), 1L << (10 * (shift + 1)));
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("too large a size: '" + value + "'");
+        }
+    }
+
+    /**
+     * An age (e.g. 30m, 12h, 7d, 2w) or a date (2024-05-01) or date and time (2024-05-01T10:30), local.
+     *
+     * @return the time, in millis, after which a file is newer
+     */
+    public static long parseNewer(String value, long now) {
+        Matcher matcher = AGE.matcher(value.trim().toLowerCase(Locale.ROOT));
+
+        if (matcher.matches()) {
+            Duration unit;
+
+            switch (matcher.group(2)) {
+                case "s": unit = Duration.ofSeconds(1); break;
+                case "m": unit = Duration.ofMinutes(1); break;
+                case "h": unit = Duration.ofHours(1); break;
+                case "d": unit = Duration.ofDays(1); break;
+                default: unit = Duration.ofDays(7);
+            }
+
+            try {
+                return Math.subtractExact(now, unit.multipliedBy(Long.parseLong(matcher.group(1))).toMillis());
+            } catch (NumberFormatException | ArithmeticException e) {
+                throw new IllegalArgumentException("too large an age: '" + value + "'");
+            }
+        }
+
+        try {
+            LocalDateTime time = value.contains("T")? LocalDateTime.parse(value): LocalDate.parse(value).atStartOfDay();
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("not an age or a date: '" + value + "'");
+        }
+    }
+
+    /**
+     * A key among size, modified, ext, dir and depth, ascending unless followed by ':desc'.
+     */
+    public static Sort parseSort(String value) {
+        String[] parts = value.trim().toLowerCase(Locale.ROOT).split(":", 2);
+        SortField field = SORT_FIELDS.get(parts[0]);
+
+        if (field == null || (parts.length > 1 && !parts[1].equals("asc") && !parts[1].equals("desc")))
+            throw new IllegalArgumentException("not a sort order: '" + value + "', expected one of " + SORT_FIELDS.keySet() + " with an optional ':desc'");
+
+        boolean reverse = parts.length > 1 && parts[1].equals("desc");
+
+        return new Sort(new SortField(field.getField(), field.getType(), reverse));
+    }
+}
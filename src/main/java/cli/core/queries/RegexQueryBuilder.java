@@ -0,0 +1,273 @@
+package cli.core.queries;
+
+import cli.core.analyzers.CustomWhiteSpaceAnalyzer;
+import cli.core.analyzers.TrigramTokenizer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static cli.config.GlobalLogger.log;
+
+
+/**
+ * Builds the query used for regex searches: the documents holding every trigram of the literal parts the
+ * regex requires (looked up in the trigram sub-field of the field) are the candidates, and the regex itself,
+ * run with java.util.regex by the searcher's verifier, decides which of them match.
+ * The extraction is conservative: it only keeps literals that every match must contain, and gives up
+ * (every document is a candidate) on constructs it does not understand, such as a top level alternation.
+ * Such a regex, or one without a literal of three characters (e.g. {@code \d+} or {@code a.b}), scans the
+ * whole index: the searchers whose verifier is costly ask {@link #narrowsDown} first.
+ */
+public class RegexQueryBuilder {
+    // more trigrams narrow the candidates less and less, and each one is a clause
+    private static final int MAX_TRIGRAMS = 64;
+
+    // escapes standing for a single, unknown character or a position: they end a literal
+    private static final String CLASS_ESCAPES = "dDwWsSbBAzZGhHvVR";
+
+    private final String trigramField;
+
+    public RegexQueryBuilder(String field) {
+        this.trigramField = CustomWhiteSpaceAnalyzer.trigramField(field);
+    }
+
+    public Query build(Pattern pattern, VerifiedQuery.Verifier verifier) {
+        Set<String> trigrams = trigramsOf(pattern);
+
+        Query approximation;
+        if (trigrams.isEmpty()) {
+            // nothing to narrow down with, every document is verified
+            log.info("regex without trigrams, every document is verified: " + pattern);
+            approximation = new MatchAllDocsQuery();
+        } else {
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            for (String trigram : trigrams) {
+                builder.add(new TermQuery(new Term(trigramField, trigram)), BooleanClause.Occur.FILTER);
+            }
+            approximation = builder.build();
+        }
+
+        return new VerifiedQuery(approximation, pattern, verifier);
+    }
+
+    // false if every document would be a candidate
+    public boolean narrowsDown(Pattern pattern) {
+        return !trigramsOf(pattern).isEmpty();
+    }
+
+    private static Set<String> trigramsOf(Pattern pattern) {
+        Set<String> trigrams = new LinkedHashSet<>();
+        List<String> literals = requiredLiterals(pattern.pattern());
+
+        for (String literal : literals) {
+            for (int i = 0; i + TrigramTokenizer.GRAM_SIZE <= literal.length() && trigrams.size() < MAX_TRIGRAMS; i++) {
+                trigrams.add(literal.substring(i, i + TrigramTokenizer.GRAM_SIZE));
+            }
+        }
+
+        log.info("regex literals: " + literals + " | trigrams: " + trigrams.size());
+
+        return trigrams;
+    }
+
+    /**
+     * Literal strings, normalized like the indexed trigrams, that any match of the regex contains.
+     * Empty when nothing is known for sure.
+     */
+    static List<String> requiredLiterals(String regex) {
+        // free-spacing mode changes what whitespace means
+        if (regex.matches("(?s).*\\(\\?[a-zA-Z]*x.*"))
+            return List.of();
+
+        List<String> literals = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+
+            switch (c) {
+                case '|':
+                    // a top level alternative: no literal is required by every match
+                    return List.of();
+
+                case '(':
+                    i = skipGroup(regex, i);
+                    if (i < 0)
+                        return List.of();
+                    endLiteral(literal, literals);
+                    continue;
+
+                case '[':
+                    i = skipClass(regex, i);
+                    if (i < 0)
+                        return List.of();
+                    endLiteral(literal, literals);
+                    continue;
+
+                case '*':
+                case '?':
+                case '{':
+                    // the previous character may not be there at all
+                    if (literal.length() > 0 && !isAtLeastOnce(regex, i))
+                        literal.setLength(literal.length() - 1);
+                    endLiteral(literal, literals);
+                    i = skipQuantifier(regex, i);
+                    continue;
+
+                case '+':
+                    // the previous character is there, what follows it is unknown
+                    endLiteral(literal, literals);
+                    i = skipQuantifier(regex, i);
+                    continue;
+
+                case '.':
+                case '^':
+                case '$':
+                    endLiteral(literal, literals);
+                    i++;
+                    continue;
+
+                case '\\':
+                    if (i + 1 >= regex.length())
+                        return List.of();
+
+                    char escaped = regex.charAt(i + 1);
+
+                    if (escaped == 'Q') {
+                        // quoted until \E
+                        int end = regex.indexOf("\\E", i + 2);
+                        String quoted = end < 0? regex.substring(i + 2): regex.substring(i + 2, end);
+
+                        // a quantifier right after \E applies to the last quoted character only
+                        int next = end < 0? regex.length(): end + 2;
+                        for (int q = 0; q < quoted.length(); q++) {
+                            literal.append(TrigramTokenizer.normalize(quoted.charAt(q)));
+                        }
+
+                        i = next;
+                    } else if (escaped == 'n' || escaped == 't' || escaped == 'r' || escaped == 'f') {
+                        literal.append(' ');
+                        i += 2;
+                    } else if (CLASS_ESCAPES.indexOf(escaped) >= 0) {
+                        endLiteral(literal, literals);
+                        i += 2;
+                    } else if (!Character.isLetterOrDigit(escaped)) {
+                        literal.append(TrigramTokenizer.normalize(escaped));
+                        i += 2;
+                    } else {
+                        // back references, code points, properties...: not worth understanding
+                        return List.of();
+                    }
+                    continue;
+
+                default:
+                    literal.append(TrigramTokenizer.normalize(c));
+                    i++;
+            }
+        }
+
+        endLiteral(literal, literals);
+
+        return literals;
+    }
+
+    private static void endLiteral(StringBuilder literal, List<String> literals) {
+        if (literal.length() >= TrigramTokenizer.GRAM_SIZE)
+            literals.add(literal.toString());
+
+        literal.setLength(0);
+    }
+
+    // {n,m} with n > 0
+    private static boolean isAtLeastOnce(String regex, int i) {
+        if (regex.charAt(i) != '{')
+            return false;
+
+        int j = i + 1;
+        while (j < regex.length() && Character.isDigit(regex.charAt(j)))
+            j++;
+
+        return j > i + 1 && Integer.parseInt(regex.substring(i + 1, j)) > 0;
+    }
+
+    // index after the quantifier and its lazy/possessive modifier
+    private static int skipQuantifier(String regex, int i) {
+        if (regex.charAt(i) == '{') {
+            int end = regex.indexOf('}', i);
+            i = end < 0? regex.length(): end + 1;
+        } else {
+            i++;
+        }
+
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+'))
+            i++;
+
+        return i;
+    }
+
+    // index after the group opened at i, -1 if it is not closed
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+
+            if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0)
+                    return -1;
+                continue;
+            }
+
+            if (c == '(')
+                depth++;
+            else if (c == ')' && --depth == 0)
+                return i + 1;
+
+            i++;
+        }
+
+        return -1;
+    }
+
+    // index after the character class opened at i, -1 if it is not closed
+    private static int skipClass(String regex, int i) {
+        int depth = 0;
+        int start = i;
+
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+
+            if (c == '[') {
+                depth++;
+            } else if (c == ']' && !isLeadingBracket(regex, start, i) && --depth == 0) {
+                return i + 1;
+            }
+
+            i++;
+        }
+
+        return -1;
+    }
+
+    // a ']' right after '[' or '[^' is a literal
+    private static boolean isLeadingBracket(String regex, int start, int i) {
+        return i == start + 1 || (i == start + 2 && regex.charAt(start + 1) == '^');
+    }
+}
@@ -0,0 +1,189 @@
+package cli.core.queries;
+
+import cli.core.analyzers.CustomWhiteSpaceAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Turns a line (or page, paragraph) that matched a query into a short snippet with the matching parts marked.
+ * The terms and automata of the query (as told by a {@link QueryVisitor}) are run against the tokens of the
+ * text, analyzed like the field they were written to; a regex query marks its own matches instead.
+ */
+public class SnippetBuilder {
+    // ANSI bold red, like grep --color
+    public static final String[] ANSI_MARKS = {"\u001B[1;31m", "\u001B[0m"};
+    public static final String[] NO_MARKS = {"", ""};
+
+    private static final int SNIPPET_LENGTH = 160;
+    // context kept before the first match when the text has to be cut
+    private static final int LEADING_CONTEXT = 40;
+
+    private final Analyzer analyzer;
+    private final String field;
+    private final String openMark;
+    private final String closeMark;
+
+    private final Set<BytesRef> terms = new HashSet<>();
+    private final List<ByteRunAutomaton> automata = new ArrayList<>();
+    private final Set<BytesRef> suffixTerms = new HashSet<>();
+    private final List<ByteRunAutomaton> suffixAutomata = new ArrayList<>();
+    private final Pattern pattern;
+
+    public SnippetBuilder(Analyzer analyzer, String field, Query query, String[] marks) {
+        this.analyzer = analyzer;
+        this.field = field;
+        this.openMark = marks[0];
+        this.closeMark = marks[1];
+        this.pattern = query instanceof VerifiedQuery? ((VerifiedQuery) query).getPattern(): null;
+
+        if (pattern == null)
+            collectTerms(query);
+    }
+
+    private void collectTerms(Query query) {
+        String suffixField = CustomWhiteSpaceAnalyzer.suffixField(field);
+
+        query.visit(new QueryVisitor() {
+            @Override
+            public boolean acceptField(String name) {
+                return name.equals(field) || name.equals(suffixField);
+            }
+
+            @Override
+            public void consumeTerms(Query query, Term... queryTerms) {
+                for (Term term : queryTerms) {
+                    (term.field().equals(field)? terms: suffixTerms).add(term.bytes());
+                }
+            }
+
+            @Override
+            public void consumeTermsMatching(Query query, String name, Supplier<ByteRunAutomaton> automaton) {
+                (name.equals(field)? automata: suffixAutomata).add(automaton.get());
+            }
+
+            @Override
+            public QueryVisitor getSubVisitor(BooleanClause.Occur occur, Query parent) {
+                // excluded terms are not in a matching text
+                return occur == BooleanClause.Occur.MUST_NOT? QueryVisitor.EMPTY_VISITOR: this;
+            }
+        });
+    }
+
+    public String build(String text) {
+        List<int[]> spans = pattern != null? regexSpans(text): tokenSpans(text);
+
+        int start = 0;
+        int end = text.length();
+
+        if (end > SNIPPET_LENGTH) {
+            start = spans.isEmpty()? 0: Math.max(0, spans.get(0)[0] - LEADING_CONTEXT);
+            end = Math.min(text.length(), start + SNIPPET_LENGTH);
+        }
+
+        StringBuilder snippet = new StringBuilder();
+        if (start > 0)
+            snippet.append("...");
+
+        int position = start;
+        for (int[] span : spans) {
+            int spanStart = Math.max(span[0], position);
+            int spanEnd = Math.min(span[1], end);
+
+            if (spanStart >= spanEnd)
+                continue;
+
+            snippet.append(text, position, spanStart)
+                    .append(openMark)
+                    .append(text, spanStart, spanEnd)
+                    .append(closeMark);
+            position = spanEnd;
+        }
+        snippet.append(text, position, end);
+
+        if (end < text.length())
+            snippet.append("...");
+
+        // one snippet per line of output
+        return snippet.toString().replaceAll("\\s", " ").strip();
+    }
+
+    private List<int[]> regexSpans(String text) {
+        List<int[]> spans = new ArrayList<>();
+        Matcher matcher = pattern.matcher(text);
+
+        while (matcher.find()) {
+            if (matcher.end() > matcher.start())
+                spans.add(new int[]{matcher.start(), matcher.end()});
+        }
+
+        return spans;
+    }
+
+    private List<int[]> tokenSpans(String text) {
+        List<int[]> spans = new ArrayList<>();
+
+        try (TokenStream tokens = analyzer.tokenStream(field, text)) {
+            CharTermAttribute term = tokens.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offset = tokens.addAttribute(OffsetAttribute.class);
+
+            tokens.reset();
+            while (tokens.incrementToken()) {
+                if (matches(term.toString()))
+                    spans.add(new int[]{offset.startOffset(), offset.endOffset()});
+            }
+            tokens.end();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return spans;
+    }
+
+    private boolean matches(String token) {
+        BytesRef bytes = new BytesRef(token);
+
+        if (terms.contains(bytes) || runs(automata, bytes))
+            return true;
+
+        if (suffixTerms.isEmpty() && suffixAutomata.isEmpty())
+            return false;
+
+        // the suffix field holds every (truncated) suffix of the token
+        for (int i = 0; i < token.length(); i++) {
+            BytesRef suffix = new BytesRef(token.substring(i, Math.min(token.length(), i + CustomWhiteSpaceAnalyzer.MAX_SUFFIX_LENGTH)));
+
+            if (suffixTerms.contains(suffix) || runs(suffixAutomata, suffix))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static boolean runs(List<ByteRunAutomaton> automata, BytesRef bytes) {
+        for (ByteRunAutomaton automaton : automata) {
+            if (automaton.run(bytes.bytes, bytes.offset, bytes.length))
+                return true;
+        }
+
+        return false;
+    }
+}
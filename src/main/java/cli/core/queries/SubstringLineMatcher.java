@@ -0,0 +1,106 @@
+package cli.core.queries;
+
+import java.util.regex.Pattern;
+
+
+/**
+ * Matches a single line against the same semantics {@link SubstringQueryBuilder} gives a query, without an index:
+ * the line is split into lowercased whitespace separated tokens and must contain
+ * a token containing the first query token (ending with it when more tokens follow),
+ * the middle query tokens as consecutive tokens, and a token starting with the last query token.
+ */
+public class SubstringLineMatcher {
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final String[] tokens;
+    private final Pattern firstTokenPattern;   // only when the first token has wildcard characters
+
+    public SubstringLineMatcher(final String query) {
+        // Split the query into tokens using whitespace
+        this.tokens = query.toLowerCase().split("\\s+");
+        this.firstTokenPattern = hasWildcard(tokens[0])? compileWildcard(tokens[0], tokens.length == 1): null;
+    }
+
+    public boolean matches(String line) {
+        String[] lineTokens = tokenize(line);
+
+        return matchesFirstToken(lineTokens)
+                && (tokens.length <= 2 || containsPhrase(lineTokens))
+                && (tokens.length <= 1 || containsPrefix(lineTokens, tokens[tokens.length - 1]));
+    }
+
+    private static String[] tokenize(String line) {
+        String trimmed = line.strip();
+
+        return trimmed.isEmpty()? new String[0]: WHITESPACE.split(trimmed.toLowerCase());
+    }
+
+    private boolean matchesFirstToken(String[] lineTokens) {
+        String first = tokens[0];
+        boolean isOnlyToken = tokens.length == 1;
+
+        for (String lineToken : lineTokens) {
+            boolean matched = firstTokenPattern != null
+                    ? firstTokenPattern.matcher(lineToken).matches()
+                    : isOnlyToken? lineToken.contains(first): lineToken.endsWith(first);
+
+            if (matched)
+                return true;
+        }
+
+        return false;
+    }
+
+    // middle tokens, exact and contiguous (phrase with slop 0)
+    private boolean containsPhrase(String[] lineTokens) {
+        int phraseLength = tokens.length - 2;
+
+        for (int start = 0; start + phraseLength <= lineTokens.length; start++) {
+            int i = 0;
+            while (i < phraseLength && lineTokens[start + i].equals(tokens[i + 1]))
+                i++;
+
+            if (i == phraseLength)
+                return true;
+        }
+
+        return false;
+    }
+
+    private static boolean containsPrefix(String[] lineTokens, String prefix) {
+        for (String lineToken : lineTokens) {
+            if (lineToken.startsWith(prefix))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static boolean hasWildcard(String token) {
+        return token.indexOf('*') >= 0 || token.indexOf('?') >= 0 || token.indexOf('\\') >= 0;
+    }
+
+    // same syntax as WildcardQuery: * any string, ? any character, \ escapes
+    private static Pattern compileWildcard(String token, boolean isOnlyToken) {
+        StringBuilder regex = new StringBuilder(".*");
+
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (c == '\\' && i + 1 < token.length()) {
+                regex.append(Pattern.quote(String.valueOf(token.charAt(++i))));
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+
+        if (isOnlyToken)
+            regex.append(".*");
+
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
@@ -0,0 +1,81 @@
+package cli.core.queries;
+
+import cli.core.analyzers.CustomWhiteSpaceAnalyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+
+
+/**
+ * Builds the query used for plain (non expression) searches:
+ * the first token matches as a substring (suffix when more tokens follow), the middle tokens as an exact phrase
+ * and the last token as a prefix.
+ * When the field has a suffix sub-field the substring and suffix matches are term/prefix lookups on it
+ * instead of leading wildcard scans over the whole term dictionary.
+ */
+public class SubstringQueryBuilder {
+    private final String field;
+    private final String suffixField;
+
+    public SubstringQueryBuilder(String field, boolean hasSuffixField) {
+        this.field = field;
+        this.suffixField = hasSuffixField? CustomWhiteSpaceAnalyzer.suffixField(field): null;
+    }
+
+    public Query build(final String query) {
+        // Split the query into tokens using whitespace
+        String[] tokens = query.toLowerCase().split("\\s+");
+
+        BooleanQuery.Builder booleanBuilder = new BooleanQuery.Builder();
+
+        if (tokens.length > 0) {
+            booleanBuilder.add(buildFirstTokenQuery(tokens[0], tokens.length == 1), BooleanClause.Occur.MUST);
+        }
+
+        if(tokens.length > 2) {
+            // Create a PhraseQuery to ensure the tokens are contiguous and in order
+            PhraseQuery.Builder phraseBuilder = new PhraseQuery.Builder();
+
+            // Add terms to the PhraseQuery (both original and reversed)
+            for (int i = 1; i < tokens.length - 1; i++) {
+                // Exact match for middle tokens
+                phraseBuilder.add(new Term(field, tokens[i]), i);
+            }
+
+            // Set the maximum number of other words permitted between words in query phrase
+            // If you want the words to be contiguous, set it to 0
+            phraseBuilder.setSlop(0);
+
+            booleanBuilder.add(phraseBuilder.build(), BooleanClause.Occur.MUST);
+        }
+
+        if(tokens.length > 1) {
+            PrefixQuery prefixQuery = new PrefixQuery(new Term(field, tokens[tokens.length - 1]));
+            booleanBuilder.add(prefixQuery, BooleanClause.Occur.MUST);
+        }
+
+        return booleanBuilder.build();
+    }
+
+    private Query buildFirstTokenQuery(String token, boolean isOnlyToken) {
+        if (canUseSuffixField(token)) {
+            // substring: prefix of some suffix | suffix: one of the suffixes
+            return isOnlyToken
+                    ? new PrefixQuery(new Term(suffixField, token))
+                    : new TermQuery(new Term(suffixField, token));
+        }
+
+        final String searchTerm = isOnlyToken? "*" + token + "*": "*" + token;
+
+        return new WildcardQuery(new Term(field, searchTerm));
+    }
+
+    private boolean canUseSuffixField(String token) {
+        // longer suffixes are truncated in the index, and wildcard characters typed by the user need the wildcard query
+        return suffixField != null
+                && !token.isEmpty()
+                && token.length() < CustomWhiteSpaceAnalyzer.MAX_SUFFIX_LENGTH
+                && token.indexOf('*') < 0
+                && token.indexOf('?') < 0
+                && token.indexOf('\\') < 0;
+    }
+}
@@ -0,0 +1,130 @@
+package cli.core.queries;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.*;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+
+/**
+ * Matches the documents of an approximation query whose text also matches a regex, a check the index cannot
+ * answer: the verifier reads the text (stored field, file...) and runs the regex on it. The check runs as the
+ * second phase of a {@link TwoPhaseIterator}, so only candidates are verified, and only once per search:
+ * counting, ranking and paging work as usual. All matches score the same.
+ */
+public class VerifiedQuery extends Query {
+    // verifying is expensive compared to walking postings
+    private static final float MATCH_COST = 1000f;
+
+    public interface Verifier {
+        LeafVerifier forLeaf(LeafReaderContext context) throws IOException;
+    }
+
+    public interface LeafVerifier {
+        boolean matches(int docId) throws IOException;
+    }
+
+    private final Query approximation;
+    private final Pattern pattern;
+    private final Verifier verifier;
+
+    public VerifiedQuery(Query approximation, Pattern pattern, Verifier verifier) {
+        this.approximation = approximation;
+        this.pattern = pattern;
+        this.verifier = verifier;
+    }
+
+    public Query getApproximation() {
+        return approximation;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Verifies the pattern against the stored values of a field.
+     */
+    public static Verifier storedField(String field, Pattern pattern) {
+        Set<String> fields = Set.of(field);
+
+        return context -> {
+            StoredFields storedFields = context.reader().storedFields();
+
+            return docId -> {
+                for (String value : storedFields.document(docId, fields).getValues(field)) {
+                    if (pattern.matcher(value).find())
+                        return true;
+                }
+
+                return false;
+            };
+        };
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+        Weight approximationWeight = searcher.createWeight(searcher.rewrite(approximation), ScoreMode.COMPLETE_NO_SCORES, 1f);
+
+        return new ConstantScoreWeight(this, boost) {
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                Scorer approximationScorer = approximationWeight.scorer(context);
+
+                if (approximationScorer == null)
+                    return null;
+
+                DocIdSetIterator candidates = approximationScorer.iterator();
+                LeafVerifier leafVerifier = verifier.forLeaf(context);
+
+                TwoPhaseIterator twoPhase = new TwoPhaseIterator(candidates) {
+                    @Override
+                    public boolean matches() throws IOException {
+                        return leafVerifier.matches(candidates.docID());
+                    }
+
+                    @Override
+                    public float matchCost() {
+                        return MATCH_COST;
+                    }
+                };
+
+                return new ConstantScoreScorer(this, score(), scoreMode, twoPhase);
+            }
+
+            @Override
+            public boolean isCacheable(LeafReaderContext context) {
+                // the check may read files, which can change under the same reader
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+        approximation.visit(visitor.getSubVisitor(BooleanClause.Occur.MUST, this));
+    }
+
+    @Override
+    public String toString(String field) {
+        return "verified(" + approximation.toString(field) + ", /" + pattern.pattern() + "/)";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        // the verifier has no meaningful equality, two instances are only equal if they share it
+        return sameClassAs(other)
+                && approximation.equals(((VerifiedQuery) other).approximation)
+                && pattern.pattern().equals(((VerifiedQuery) other).pattern.pattern())
+                && verifier == ((VerifiedQuery) other).verifier;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(), approximation, pattern.pattern());
+    }
+}
@@ -0,0 +1,78 @@
+package cli.core.searchers;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LRUQueryCache;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.UsageTrackingQueryCachingPolicy;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Opens searchers that search the segments of the index concurrently, in slices, on a bounded pool of
+ * threads shared by every searcher it opens (the ones a SearcherManager refreshes included).
+ * The slices are sized to the index rather than by the fixed defaults of lucene: about one slice per thread,
+ * but none smaller than {@link #MIN_DOCS_PER_SLICE}, below which a task costs more than it saves.
+ * A segment is never split, so an index of a single segment is still searched by one thread.
+ * With a single thread, no pool is started and the searchers run on the calling thread.
+ * The searchers share a query cache: the filter clauses (metadata filters, files only with --lines...) that
+ * come back query after query are cached per segment, as bit sets, once they were used a few times.
+ * Only segments of at least {@link #MIN_DOCS_TO_CACHE} documents are cached, smaller ones are as fast to search.
+ */
+public class ConcurrentSearcherFactory extends SearcherFactory {
+    static final int MIN_DOCS_PER_SLICE = 20_000;
+    static final int MIN_DOCS_TO_CACHE = 10_000;
+    static final int MAX_CACHED_QUERIES = 256;
+    static final long MAX_CACHE_BYTES = 32L << 20;
+
+    private final int nThreads;
+    private final ExecutorService executor;
+    private final LRUQueryCache queryCache = new LRUQueryCache(MAX_CACHED_QUERIES, MAX_CACHE_BYTES, leaf -> leaf.reader().maxDoc() >= MIN_DOCS_TO_CACHE, 10f);
+    private final UsageTrackingQueryCachingPolicy cachingPolicy = new UsageTrackingQueryCachingPolicy();
+
+    public ConcurrentSearcherFactory(int nThreads) {
+        this.nThreads = nThreads;
+        this.executor = nThreads <= 1? null: Executors.newFixedThreadPool(nThreads, runnable -> {
+            Thread thread = new Thread(runnable, "lfind-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+        IndexSearcher searcher = executor == null? new IndexSearcher(reader): new IndexSearcher(reader, executor) {
+            @Override
+            protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+                return sliceLeaves(leaves);
+            }
+        };
+
+        searcher.setQueryCache(queryCache);
+        searcher.setQueryCachingPolicy(cachingPolicy);
+
+        return searcher;
+    }
+
+    private IndexSearcher.LeafSlice[] sliceLeaves(List<LeafReaderContext> leaves) {
+        long nDocs = 0;
+        for (LeafReaderContext leaf : leaves)
+            nDocs += leaf.reader().maxDoc();
+
+        int maxDocsPerSlice = (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_DOCS_PER_SLICE, (nDocs + nThreads - 1) / nThreads));
+        int maxSegmentsPerSlice = Math.max(1, (leaves.size() + nThreads - 1) / nThreads);
+
+        return IndexSearcher.slices(leaves, maxDocsPerSlice, maxSegmentsPerSlice);
+    }
+
+    public void close() {
+        if (executor != null)
+            executor.shutdownNow();
+
+        queryCache.clear();
+    }
+}
@@ -1,64 +1,173 @@
 package cli.core.searchers;
 
+import cli.config.Config;
 import cli.core.analyzers.CustomWhiteSpaceAnalyzer;
+import cli.core.enums.FileType;
+import cli.core.enums.IndexStore;
 import cli.core.enums.MimeType;
+import cli.core.enums.SearchTarget;
+import cli.core.indexers.ExtractionCache;
+import cli.core.indexers.FileWalker;
+import cli.core.indexers.IndexUpdater;
+import cli.core.indexers.IndexWatcher;
+import cli.core.indexers.IndexWriterSettings;
+import cli.core.indexers.IndexedFiles;
+import cli.core.indexers.IndexingPipeline;
+import cli.core.indexers.MetadataFields;
+import cli.core.indexers.MimeTypeDetector;
+import cli.core.parsers.ArchiveReader;
+import cli.core.parsers.ParseSupervisor;
+import cli.core.parsers.StreamedText;
+import cli.core.queries.CollapsedQuery;
+import cli.core.queries.CompiledQuery;
+import cli.core.queries.MetadataFilter;
+import cli.core.queries.RegexQueryBuilder;
+import cli.core.queries.SubstringQueryBuilder;
+import cli.core.queries.SnippetBuilder;
+import cli.core.queries.VerifiedQuery;
+import cli.metrics.Timer;
 import lombok.SneakyThrows;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.tika.Tika;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import static cli.config.GlobalLogger.log;
+import static cli.metrics.Metrics.metrics;
 
 
-public class FileContentSearcher implements ISearcher {
-    private static final int FILE_COMMIT_THRESHOLD = 50;
+public class FileContentSearcher implements ISearcher, IndexUpdater {
+    // matching lines shown under a file
+    private static final int MAX_SNIPPETS = 5;
+    // paths of the copies shown under a file
+    private static final int MAX_COPIES = 5;
+
+    private static final Timer DETECT_TIMER = metrics.timer("detect");
+    private static final Timer ADD_DOCUMENT_TIMER = metrics.timer("addDocument");
+    private static final Timer COMMIT_TIMER = metrics.timer("commit");
+    private static final Timer OPEN_SEARCHER_TIMER = metrics.timer("openSearcher");
 
     private static class Fields {
         public static String FILE_NAME = "fileName";
         public static String ABS_PATH = "absPath";
-        public static String CONTENT = "content";
+        public static String CONTENT = SearchTarget.CONTENT.getField();
         public static String MIME_TYPE = "mimeType";
+        // combined index: the name as a text field, and the directory below the root (stored, for regexes)
+        public static String NAME = SearchTarget.NAME.getField();
+        public static String PATH = SearchTarget.PATH.getField();
+        public static String SIZE = MetadataFields.SIZE;
+        public static String MODIFIED = MetadataFields.MODIFIED;
+        // with --lines: a file is indexed as a block of its fragments (lines, pages, paragraphs) followed by itself
+        public static String DOC_TYPE = "docType";
+        public static String FRAGMENT = "fragment";
+        public static String LOCATION = "location";
+        // SHA-256 of the file, shared by its copies
+        public static String CONTENT_HASH = "contentHash";
+    }
+
+    private static class DocTypes {
+        public static String FILE = "file";
+        public static String FRAGMENT = "fragment";
     }
 
     Directory index;
     IndexWriter writer;
     File rootDir;
-    IndexSearcher searcher;
+    SearcherManager searcherManager;
+    ConcurrentSearcherFactory searcherFactory;
+    SearchCache searchCache;
     Analyzer analyzer;
-    int nTopDocs;
-    Tika tika;
+    boolean suffixIndex;
+    Map<SearchTarget, SubstringQueryBuilder> queryBuilders = new EnumMap<>(SearchTarget.class);
+    boolean regex;
+    Map<SearchTarget, RegexQueryBuilder> regexQueryBuilders = new EnumMap<>(SearchTarget.class);
+    MetadataFilter metadataFilter;
+    boolean lines;
+    boolean combined;
+    volatile SearchTarget target;
+    String[] highlightMarks;
+    MimeTypeDetector mimeTypeDetector;
+    ParseSupervisor parseSupervisor;
+    ExtractionCache extractionCache;
+    boolean collapseDuplicates;
+    boolean archives;
+    ArchiveReader archiveReader;
     Set<MimeType> allowedMimeTypes;
-    int nFilesProcessed = 0;
-
-    public FileContentSearcher(Path indexDir, File rootDir, String[] mimeTypes) {
+    int nThreads;
+    boolean incremental;
+    IndexStore indexStore;
+    boolean watch;
+    IndexedFiles indexedFiles;
+    IndexWatcher watcher;
+    FileWalker walker;
+    AtomicInteger nFilesProcessed = new AtomicInteger();
+    int ramBufferMB;
+
+    public FileContentSearcher(Path indexDir, File rootDir, String[] mimeTypes, Config config) {
         this.rootDir = rootDir;
+        this.nThreads = config.getNThreads();
+        this.incremental = config.isIncremental();
+        this.indexStore = config.getIndexStore();
+        this.watch = config.isWatch();
+        this.ramBufferMB = config.getIndexRamBufferMB();
         this.analyzer = new CustomWhiteSpaceAnalyzer();
-        this.nTopDocs = Integer.MAX_VALUE;
-        this.tika = new Tika();
-
+        this.suffixIndex = config.isSuffixIndex();
+        this.regex = config.isRegex();
+        this.searchCache = config.isSearchCache()? new SearchCache(): null;
+        this.metadataFilter = new MetadataFilter(config);
+        this.lines = config.isLines();
+        this.combined = config.isCombined();
+        this.target = combined? config.getTarget(): SearchTarget.CONTENT;
+        this.highlightMarks = config.isHighlight()? SnippetBuilder.ANSI_MARKS: SnippetBuilder.NO_MARKS;
+        this.mimeTypeDetector = new MimeTypeDetector();
+        this.parseSupervisor = new ParseSupervisor(config.getMaxFileBytes(), config.getMaxChars(), config.getParseTimeoutMillis());
+        this.extractionCache = openExtractionCache(config.getExtractionCacheDir());
+        this.collapseDuplicates = config.isCollapseDuplicates();
+        this.archives = config.isArchives();
+        this.archiveReader = new ArchiveReader(config.getMaxArchiveDepth(), name -> mimeTypeDetector.detectByName(name) == MimeType.ARCHIVE);
+        this.walker = new FileWalker(rootDir.toPath(), config);
+        this.searcherFactory = new ConcurrentSearcherFactory(config.getSearchThreads());
+
+        for (SearchTarget searchTarget : SearchTarget.values()) {
+            queryBuilders.put(searchTarget, new SubstringQueryBuilder(searchTarget.getField(), suffixIndex));
+            regexQueryBuilders.put(searchTarget, new RegexQueryBuilder(searchTarget.getField()));
+        }
 
         buildMimeTypeFilter(mimeTypes);
         buildIndex(indexDir);
         openSearcher();
+
+        if(watch)
+            startWatching();
     }
 
     private void buildMimeTypeFilter(String[] mimeTypes) {
@@ -78,162 +187,800 @@ public class FileContentSearcher implements ISearcher {
         return allowedMimeTypes == null || allowedMimeTypes.contains(mimeType);
     }
 
+    @SneakyThrows
+    private static ExtractionCache openExtractionCache(Path dir) {
+        return dir == null? ExtractionCache.temporary(): ExtractionCache.open(dir);
+    }
+
     @SneakyThrows
     private void openSearcher() {
-        this.searcher = new IndexSearcher(DirectoryReader.open(this.index));
+        // the writer stays open and the searcher reads from it (near-real-time), so that an ephemeral index
+        // is never committed and the watcher can refresh the searcher after its updates
+        long start = System.nanoTime();
+        this.searcherManager = new SearcherManager(this.writer, searcherFactory);
+        OPEN_SEARCHER_TIMER.stop(start);
+
+        log.info("Searcher opened: " + describeIndex());
+    }
+
+    private String describeIndex() throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+
+        try {
+            return IndexWriterSettings.describe(searcher.getIndexReader());
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    @SneakyThrows
+    private void startWatching() {
+        this.watcher = new IndexWatcher(walker, this);
     }
 
     @SneakyThrows
     private void initializeIndexWriter() {
         IndexWriterConfig config = new IndexWriterConfig(this.analyzer);
-        // Create a new index in the directory, removing any
-        // previously indexed documents:
-        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        // Create a new index in the directory, removing any previously indexed documents,
+        // unless the index is persistent and only has to be brought up to date
+        config.setOpenMode(incremental? IndexWriterConfig.OpenMode.CREATE_OR_APPEND: IndexWriterConfig.OpenMode.CREATE);
+        // an ephemeral index is deleted on exit anyway, only a persistent one is worth the fsyncs
+        config.setCommitOnClose(incremental);
+        IndexWriterSettings.tune(config, ramBufferMB, incremental);
         this.writer = new IndexWriter(this.index, config);
     }
 
     @SneakyThrows
     private void buildIndex(Path indexDir) {
-        this.index = FSDirectory.open(indexDir);
+        this.index = indexStore.open(indexDir);
+        this.indexedFiles = incremental
+                ? IndexedFiles.load(this.index, Fields.ABS_PATH, Fields.SIZE, Fields.MODIFIED)
+                : IndexedFiles.empty();
+
         initializeIndexWriter();
         addDocsToIndex();
     }
 
-    private void addDocsToIndex() throws IOException {
-        // recursively read files and folder metadata and add to index
-        Files.walk(rootDir.toPath())
-                .filter(Files::isRegularFile)
-                .forEach(this::indexFile);
+    private void addDocsToIndex() throws IOException, InterruptedException {
+        log.info("indexing with " + nThreads + " parse worker(s)");
+        long start = System.nanoTime();
+
+        // recursively read files and add to index, skipping ignored subtrees
+        // the walker feeds a bounded queue drained by the parse workers, which write to the (thread-safe) writer
+        int nFilesWalked = new IndexingPipeline<Map.Entry<Path, BasicFileAttributes>>(nThreads).run(
+                files -> walker.walk(rootDir.toPath(), (path, attributes) -> {
+                    if(isIndexed(attributes))
+                        files.accept(Map.entry(path, attributes));
+                }),
+                file -> indexPath(file.getKey(), file.getValue()));
+
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        log.info(String.format("walked %d files, indexed %d in %.2fs (%.1f files/sec)",
+                nFilesWalked, nFilesProcessed.get(), seconds, nFilesWalked / seconds));
+
+        // the build goes on without them, but the user should know what is missing from the index
+        String parseReport = parseSupervisor.report();
+        if(parseReport != null) {
+            System.err.println(parseReport);
+            log.info(parseReport);
+        }
+
+        removeDeletedFiles();
+
+        // Commit the index writer, it stays open for the searcher
+        commitIfPersistent();
+    }
+
+    private void removeDeletedFiles() throws IOException {
+        // files that are in the persistent index but were not seen during the walk
+        Term[] removed = indexedFiles.getRemovedPaths().stream()
+                .map(path -> new Term(Fields.ABS_PATH, path))
+                .toArray(Term[]::new);
 
-        // Commit and close the index writer
-        commitAndClose();
+        if(removed.length > 0) {
+            writer.deleteDocuments(removed);
+
+            // and the entries of the removed archives
+            if(archives) {
+                writer.deleteDocuments(Arrays.stream(removed)
+                        .map(term -> new PrefixQuery(new Term(Fields.ABS_PATH, term.text() + ArchiveReader.SEPARATOR)))
+                        .toArray(Query[]::new));
+            }
+
+            log.info("files removed from index: " + removed.length);
+        }
     }
 
-    private void commitAndClose() throws IOException {
+    // documents are replaced by path once they may already be in the index
+    private boolean updatesDocuments() {
+        return incremental || watch;
+    }
+
+    // the documents of a file are written as one block, the path term replaces all of them
+    // a streamed text is parsed while it is written, the time of its parse is in there too
+    private void writeDocuments(String absolutePath, List<Document> documents) throws IOException {
+        long start = System.nanoTime();
+
+        if(updatesDocuments())
+            writer.updateDocuments(new Term(Fields.ABS_PATH, absolutePath), documents);
+        else
+            writer.addDocuments(documents);
+
+        ADD_DOCUMENT_TIMER.stop(start);
+    }
+
+    private void commitIfPersistent() throws IOException {
+        if(incremental)
+            commit();
+    }
+
+    private void commit() throws IOException {
+        long start = System.nanoTime();
         writer.commit();
-        writer.close();
+        COMMIT_TIMER.stop(start);
     }
 
-    private void indexFile(Path filePath) {
-        final File file = filePath.toFile();
-        MimeType mimeType;
+    private static Timer parseTimer(MimeType mimeType) {
+        return metrics.timer("parse." + mimeType);
+    }
+
+    @Override
+    public void updatePath(Path path) {
+        final BasicFileAttributes attributes;
 
         try {
-            final String tikaMime = tika.detect(file);
-            mimeType = MimeType.parse(tikaMime);
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            log.info("skipping path: " + path.toAbsolutePath() + " | " + e.getMessage());
+            return;
+        }
+
+        if(isIndexed(attributes))
+            indexPath(path, attributes);
+    }
+
+    @Override
+    @SneakyThrows
+    public void deletePath(Path path) {
+        final String absolutePath = path.toFile().getAbsolutePath();
 
-            log.info("file: " + file.getAbsolutePath() + " | mimeType: " + mimeType + " | " + tikaMime);
+        writer.deleteDocuments(new Term(Fields.ABS_PATH, absolutePath));
+        writer.deleteDocuments(new PrefixQuery(new Term(Fields.ABS_PATH, absolutePath + File.separator)));
+        writer.deleteDocuments(new PrefixQuery(new Term(Fields.ABS_PATH, absolutePath + ArchiveReader.SEPARATOR)));
+    }
+
+    @Override
+    @SneakyThrows
+    public void refresh() {
+        // a persistent index is kept current on disk as well
+        commitIfPersistent();
+
+        searcherManager.maybeRefresh();
+    }
+
+    // directories are only found by name, in the combined index
+    private boolean isIndexed(BasicFileAttributes attributes) {
+        return attributes.isRegularFile() || (combined && attributes.isDirectory());
+    }
 
-            if(!isMimeTypeAllowed(mimeType))
+    private void indexPath(Path path, BasicFileAttributes attributes) {
+        if(attributes.isDirectory())
+            indexDirectory(path, attributes);
+        else
+            indexFile(path, attributes);
+    }
+
+    private void indexDirectory(Path dirPath, BasicFileAttributes attributes) {
+        try {
+            final String absolutePath = dirPath.toFile().getAbsolutePath();
+            final String name = dirPath.toFile().getName();
+
+            if(indexedFiles.isUpToDate(absolutePath, attributes)) {
+                metrics.count("files.unchanged");
                 return;
+            }
+
+            // no mime type: a directory
+            Document document = new Document();
+            document.add(new StringField(Fields.ABS_PATH, absolutePath, Field.Store.YES));
+            document.add(new StoredField(Fields.FILE_NAME, name));
 
+            if(lines)
+                document.add(new StringField(Fields.DOC_TYPE, DocTypes.FILE, Field.Store.NO));
+
+            addNameFields(document, name, relativeDirectoryOf(dirPath));
+            MetadataFields.add(document, absolutePath, name, attributes.size(), attributes.lastModifiedTime().toMillis(), walker.depthOf(dirPath));
+
+            writeDocuments(absolutePath, List.of(document));
+            metrics.count("files.indexed");
+        } catch (Exception e) {
+            metrics.count("files.errors");
+            log.severe("ERROR occured while indexing directory: " + dirPath.toAbsolutePath() + " | " + e);
+        }
+    }
+
+    // the directories between the root and the path, "" for the root and the paths right below it
+    private String relativeDirectoryOf(Path path) {
+        Path parent = path.toAbsolutePath().normalize().getParent();
+
+        return parent == null || !parent.startsWith(walker.getRoot())? "": walker.getRoot().relativize(parent).toString();
+    }
+
+    private void indexFile(Path filePath, BasicFileAttributes attributes) {
+        final File file = filePath.toFile();
+        MimeType mimeType;
+        StreamedText streamed = null;
+        ExtractionCache.PendingText pending = null;
+
+        try {
             final String absolutePath = file.getAbsolutePath();
-            final String name = file.getName();
 
-            log.info("indexing file: " + absolutePath);
+            if(indexedFiles.isUpToDate(absolutePath, attributes)) {
+                metrics.count("files.unchanged");
+                return;
+            }
+
+            // by name when possible, a file filtered out by --mimetypes is then never opened
+            long detectStart = System.nanoTime();
+            mimeType = mimeTypeDetector.detect(filePath);
+            DETECT_TIMER.stop(detectStart);
+
+            log.info("file: " + absolutePath + " | mimeType: " + mimeType);
 
             // Create a Lucene document for the file
             Document document = new Document();
+            List<Document> documents = new ArrayList<>();
+
+            ParseSupervisor.Result parsed = null;
+            String contentHash = null;
+
+            if(mimeType == MimeType.ARCHIVE && archives) {
+                // the entries are documents of their own, the archive itself is the content-less entry below
+                indexArchive(filePath, absolutePath);
+            } else if(isMimeTypeAllowed(mimeType) && mimeType.getParser() != null) {
+                log.info("indexing file: " + absolutePath);
+
+                if(needsHash(mimeType, attributes.size()))
+                    contentHash = extractionCache.hash(filePath, attributes);
+
+                if(streamsContent() && !(isCacheable(mimeType, contentHash) && extractionCache.contains(contentHash))) {
+                    // parsed while the writer reads it, and cached on the way
+                    pending = isCacheable(mimeType, contentHash)? extractionCache.open(contentHash): null;
+                    streamed = parseSupervisor.stream(mimeType.getParser(), file, attributes.size(), pending == null? chunk -> {}: pending::write, parseTimer(mimeType));
+                } else {
+                    parsed = extract(mimeType, file, attributes.size(), contentHash);
+                }
+            } else {
+                // filtered out by --mimetypes, or no parser for its type
+                metrics.count("files.skipped");
+            }
 
-            mimeType.getParser().readContent(file, text -> {
-                document.add(new TextField(Fields.CONTENT, text + " ", Field.Store.NO));
-            });
-
-            document.add(new StoredField(Fields.ABS_PATH, absolutePath));
-            document.add(new StoredField(Fields.MIME_TYPE, mimeType.name()));
-            document.add(new StoredField(Fields.FILE_NAME, name));
+            if(parsed != null && parsed.hasContent()) {
+                addChunks(document, documents, absolutePath, mimeType, parsed.getChunks());
+            } else if(streamed != null && streamed.hasContent()) {
+                document.add(new TextField(Fields.CONTENT, streamed));
+            } else if(!updatesDocuments() && !combined) {
+                return;
+            }
+            // a persistent index keeps a content-less entry for skipped files,
+            // so that they are not detected again on the next run
+            // (and in watch mode it replaces the entry of a file that is no longer parsed)
+            // the combined index keeps it to find the file by name
 
-            // Add the document to the Lucene index
-            log.info("writing document...");
-            writer.addDocument(document);
+            addFileFields(document, absolutePath, file.getName(), mimeType);
 
-            nFilesProcessed++;
+            if(combined)
+                addNameFields(document, file.getName(), relativeDirectoryOf(filePath));
 
-            if(nFilesProcessed%FILE_COMMIT_THRESHOLD == 0) {
-                writer.commit();
+            MetadataFields.add(document, absolutePath, file.getName(), attributes.size(), attributes.lastModifiedTime().toMillis(), walker.depthOf(filePath));
 
-                log.info("commiting writer. files processed: " + nFilesProcessed);
+            if(contentHash != null) {
+                document.add(new StringField(Fields.CONTENT_HASH, contentHash, Field.Store.YES));
+                document.add(new SortedDocValuesField(Fields.CONTENT_HASH, new BytesRef(contentHash)));
             }
+
+            // Add the document to the Lucene index
+            log.info("writing document...");
+            documents.add(document);
+            writeDocuments(absolutePath, documents);
+
+            nFilesProcessed.incrementAndGet();
+            metrics.count("files.indexed");
         } catch (Exception e) {
+            metrics.count("files.errors");
             log.severe("ERROR occured while indexing file: " + filePath.toAbsolutePath());
             Arrays.stream(e.getStackTrace()).forEach(st -> log.severe(st.toString()));
             return;
+        } finally {
+            // read by the writer by now, or never if the document failed
+            if(streamed != null)
+                streamed.close();
+
+            if(pending != null)
+                finishCaching(pending, streamed);
         }
     }
 
-    @Override
-    @SneakyThrows
-    public String[] getMatches(final String query) {
-        // Split the query into tokens using whitespace
-        String[] tokens = query.toLowerCase().split("\\s+");
+    // a text is cached once it was read whole: a truncated one depends on the limits of the run
+    private static void finishCaching(ExtractionCache.PendingText pending, StreamedText streamed) {
+        if(streamed != null && streamed.getOutcome() == ParseSupervisor.Outcome.PARSED)
+            pending.commit();
+        else
+            pending.discard();
+    }
+
+    // replaces what was indexed from the archive before
+    private void indexArchive(Path filePath, String absolutePath) throws IOException {
+        log.info("indexing archive: " + absolutePath);
+
+        if(updatesDocuments())
+            writer.deleteDocuments(new PrefixQuery(new Term(Fields.ABS_PATH, absolutePath + ArchiveReader.SEPARATOR)));
+
+        int nEntries = archiveReader.read(filePath, this::indexEntry);
 
-        BooleanQuery.Builder booleanBuilder = new BooleanQuery.Builder();
+        log.info("archive: " + absolutePath + " | entries: " + nEntries);
+    }
+
+    private boolean indexEntry(ArchiveReader.Entry entry) throws IOException {
+        // entries are only known by name, sniffing would read them twice
+        MimeType mimeType = mimeTypeDetector.detectByName(entry.getName());
 
-        if (tokens.length > 0) {
-            final String searchTerm = tokens.length == 1? "*" + tokens[0] + "*": "*" + tokens[0];
+        // a skipped entry needs no content-less document, the archive has one
+        if(mimeType == null || !isMimeTypeAllowed(mimeType) || mimeType.getParser() == null)
+            return true;
 
-            booleanBuilder.add(
-                    new WildcardQuery(new Term(Fields.CONTENT, searchTerm)), BooleanClause.Occur.MUST
-            );
+        ParseSupervisor.Result parsed = parseSupervisor.parse(mimeType.getParser(), entry.getStream(), entry.getPath(), entry.getSize(), parseTimer(mimeType));
+
+        // the abandoned parse may still be reading from the archive stream
+        if(parsed.getOutcome() == ParseSupervisor.Outcome.TIMED_OUT) {
+            log.severe("skipping the rest of the archive after: " + entry.getPath());
+            return false;
         }
 
-        if(tokens.length > 2) {
-            // Create a PhraseQuery to ensure the tokens are contiguous and in order
-            PhraseQuery.Builder phraseBuilder = new PhraseQuery.Builder();
+        if(!parsed.hasContent())
+            return true;
 
-            // Add terms to the PhraseQuery (both original and reversed)
-            for (int i = 1; i < tokens.length - 1; i++) {
-                // Exact match for middle tokens
-                phraseBuilder.add(new Term(Fields.CONTENT, tokens[i]), i);
-            }
+        Document document = new Document();
+        List<Document> documents = new ArrayList<>();
+
+        addChunks(document, documents, entry.getPath(), mimeType, parsed.getChunks());
+        addFileFields(document, entry.getPath(), entry.getName(), mimeType);
+
+        // within the archive, an entry has no directory below the root
+        if(combined)
+            addNameFields(document, entry.getName(), "");
+        MetadataFields.addEntry(document, entry.getName(), entry.getSize(), entry.getModified());
+
+        documents.add(document);
+        writer.addDocuments(documents);
+
+        return true;
+    }
+
+    private void addFileFields(Document document, String absolutePath, String fileName, MimeType mimeType) {
+        document.add(new StringField(Fields.ABS_PATH, absolutePath, Field.Store.YES));
+        document.add(new StoredField(Fields.MIME_TYPE, mimeType.name()));
+        document.add(new StoredField(Fields.FILE_NAME, fileName));
+
+        if(lines)
+            document.add(new StringField(Fields.DOC_TYPE, DocTypes.FILE, Field.Store.NO));
+    }
 
-            // Set the maximum number of other words permitted between words in query phrase
-            // If you want the words to be contiguous, set it to 0
-            phraseBuilder.setSlop(0);
+    // combined index: the name and the directory are searched like the content, with the same sub-fields
+    private void addNameFields(Document document, String name, String directory) {
+        addSearchableText(document, Fields.NAME, name);
 
-            booleanBuilder.add(phraseBuilder.build(), BooleanClause.Occur.MUST);
+        if(!directory.isEmpty()) {
+            addSearchableText(document, Fields.PATH, directory);
+            document.add(new StoredField(Fields.PATH, directory));
         }
+    }
+
+    private void addSearchableText(Document document, String field, String text) {
+        document.add(new TextField(field, text, Field.Store.NO));
+
+        if(suffixIndex)
+            document.add(new TextField(CustomWhiteSpaceAnalyzer.suffixField(field), text, Field.Store.NO));
+
+        if(regex)
+            document.add(new TextField(CustomWhiteSpaceAnalyzer.trigramField(field), text, Field.Store.NO));
+    }
 
-        if(tokens.length > 1) {
-            PrefixQuery prefixQuery = new PrefixQuery(new Term(Fields.CONTENT, tokens[tokens.length - 1]));
-            booleanBuilder.add(prefixQuery, BooleanClause.Occur.MUST);
+    // the content of the file, plus its fragments with --lines
+    private void addChunks(Document document, List<Document> fragments, String absolutePath, MimeType mimeType, List<String> chunks) {
+        for (String text : chunks) {
+            addContent(document, text);
         }
 
-        BooleanQuery booleanQuery = booleanBuilder.build();
+        if(!lines)
+            return;
+
+        if(mimeType == MimeType.TEXT) {
+            addLineFragments(fragments, absolutePath, chunks);
+            return;
+        }
 
-        return getMatches(booleanQuery);
+        for (int i = 0; i < chunks.size(); i++) {
+            if(!chunks.get(i).isBlank())
+                fragments.add(buildFragment(absolutePath, chunks.get(i), i + 1));
+        }
+    }
+
+    // text comes in chunks of many lines, numbered by the line breaks
+    // (a line too long for a chunk goes on in the next one, its pieces have the same number)
+    private void addLineFragments(List<Document> fragments, String absolutePath, List<String> chunks) {
+        int lineNumber = 1;
+
+        for (String chunk : chunks) {
+            int start = 0;
+
+            while (start < chunk.length()) {
+                int lineBreak = chunk.indexOf('\n', start);
+                String line = stripCarriageReturn(chunk.substring(start, lineBreak < 0? chunk.length(): lineBreak));
+
+                if(!line.isBlank())
+                    fragments.add(buildFragment(absolutePath, line, lineNumber));
+
+                if(lineBreak < 0)
+                    break;
+
+                lineNumber++;
+                start = lineBreak + 1;
+            }
+        }
+    }
+
+    private static String stripCarriageReturn(String line) {
+        return line.endsWith("\r")? line.substring(0, line.length() - 1): line;
+    }
+
+    // the text goes straight into a single content field, unless the fragments, the suffixes or the trigrams
+    // need it too
+    private boolean streamsContent() {
+        return !lines && !suffixIndex && !regex;
+    }
+
+    private static boolean isCacheable(MimeType mimeType, String contentHash) {
+        return contentHash != null && mimeType != MimeType.TEXT;
+    }
+
+    // text is read about as fast as a cached copy of it, only parsed documents are worth hashing for the cache
+    private boolean needsHash(MimeType mimeType, long size) {
+        return (collapseDuplicates || mimeType != MimeType.TEXT) && !parseSupervisor.isTooLarge(size);
+    }
+
+    // the text of a file, parsed again only if no file with the same content was parsed before
+    private ParseSupervisor.Result extract(MimeType mimeType, File file, long size, String contentHash) {
+        boolean cacheable = isCacheable(mimeType, contentHash);
+
+        if(cacheable) {
+            List<String> cached = extractionCache.get(contentHash);
+
+            if(cached != null) {
+                metrics.count("files.cached");
+                log.info("cached text: " + file);
+                return ParseSupervisor.Result.parsed(cached);
+            }
+        }
+
+        // too large, too slow or unreadable files are skipped, overly long ones truncated
+        ParseSupervisor.Result parsed = parseSupervisor.parse(mimeType.getParser(), file, size, parseTimer(mimeType));
+
+        // a truncated text depends on the limits of the run
+        if(cacheable && parsed.getOutcome() == ParseSupervisor.Outcome.PARSED)
+            extractionCache.put(contentHash, parsed.getChunks());
+
+        return parsed;
+    }
+
+    private void addContent(Document document, String text) {
+        document.add(new TextField(Fields.CONTENT, text + " ", Field.Store.NO));
+
+        if(suffixIndex)
+            document.add(new TextField(CustomWhiteSpaceAnalyzer.suffixField(Fields.CONTENT), text + " ", Field.Store.NO));
+
+        // one value per chunk: the trigrams only select the candidates, the regex is then matched within
+        // a line, page or paragraph
+        if(regex)
+            document.add(new TextField(CustomWhiteSpaceAnalyzer.trigramField(Fields.CONTENT), text, Field.Store.NO));
+    }
+
+    // a line, page or paragraph: same content fields as the file, plus its text and where it is
+    private Document buildFragment(String absolutePath, String text, int location) {
+        Document fragment = new Document();
+
+        addContent(fragment, text);
+        fragment.add(new StringField(Fields.ABS_PATH, absolutePath, Field.Store.NO));
+        fragment.add(new StringField(Fields.DOC_TYPE, DocTypes.FRAGMENT, Field.Store.NO));
+        fragment.add(new StoredField(Fields.FRAGMENT, text));
+        fragment.add(new StoredField(Fields.LOCATION, location));
+
+        return fragment;
     }
 
-    @SneakyThrows
     @Override
-    public void close() {
-        this.index.close();
+    public void setTarget(SearchTarget target) {
+        if(!combined)
+            throw new UnsupportedOperationException("only the combined index has a name and a content target");
+
+        this.target = target;
     }
 
-    @SneakyThrows
+    /**
+     * In the combined index, a plain query starting with "name:", "path:" or "content:" searches that target
+     * instead of the current one. Expressions name them as fields, e.g. "name:report AND content:total".
+     */
     @Override
-    public String[] getLuceneQueryMatches(String query) {
+    public Query buildQuery(String query, boolean isLuceneQuery) throws ParseException {
+        SearchTarget queryTarget = this.target;
+        SearchTarget prefixed = combined && !isLuceneQuery? SearchTarget.ofPrefix(query): null;
+
+        if(prefixed != null) {
+            queryTarget = prefixed;
+            query = prefixed.stripPrefix(query);
+        }
+
+        Query targetQuery = buildTargetQuery(queryTarget, query, isLuceneQuery);
+
+        if(!lines && !collapseDuplicates && metadataFilter.isEmpty())
+            return targetQuery;
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder().add(targetQuery, BooleanClause.Occur.MUST);
+
+        // files only, their fragments are looked up for the snippets
+        if(lines)
+            builder.add(new TermQuery(new Term(Fields.DOC_TYPE, DocTypes.FILE)), BooleanClause.Occur.FILTER);
+
+        metadataFilter.addClauses(builder);
+
+        // of the copies that match, the lowest path stands for the others
+        Query filesQuery = collapseDuplicates? new CollapsedQuery(builder.build(), Fields.CONTENT_HASH, Fields.ABS_PATH): builder.build();
+
+        // the fragments have content only, a name or path query has no snippets to look up
+        if(lines)
+            return new CompiledQuery(filesQuery, searchesContent(queryTarget, targetQuery, isLuceneQuery)? targetQuery: null);
+
+        return filesQuery;
+    }
+
+    // an expression may name the content field whatever the target
+    private static boolean searchesContent(SearchTarget queryTarget, Query targetQuery, boolean isLuceneQuery) {
+        return queryTarget == SearchTarget.CONTENT || (isLuceneQuery && CompiledQuery.searchesField(targetQuery, Fields.CONTENT));
+    }
+
+    private Query buildTargetQuery(SearchTarget queryTarget, String query, boolean isLuceneQuery) throws ParseException {
+        if(!isLuceneQuery && regex) {
+            // candidates by trigrams, verified by parsing the file again (the content is not stored)
+            // or against the stored name or path
+            Pattern pattern = Pattern.compile(query);
+
+            // the candidates of a content regex are parsed again: without trigrams, every file of the tree
+            if(queryTarget == SearchTarget.CONTENT && allowedMimeTypes == null && !regexQueryBuilders.get(queryTarget).narrowsDown(pattern))
+                throw new IllegalArgumentException("the regex has no literal of 3 characters or more, every file would be parsed "
+                        + "again to verify it. Add one, narrow the files down with '--mimetypes' or search with '--expression'");
+
+            VerifiedQuery.Verifier verifier = queryTarget == SearchTarget.NAME? VerifiedQuery.storedField(Fields.FILE_NAME, pattern)
+                    : queryTarget == SearchTarget.PATH? VerifiedQuery.storedField(Fields.PATH, pattern)
+                    : contentVerifier(pattern);
+
+            return regexQueryBuilders.get(queryTarget).build(pattern, verifier);
+        }
+
+        if(!isLuceneQuery)
+            return queryBuilders.get(queryTarget).build(query);
+
         // Create a QueryParser for the specified field and analyzer
-        QueryParser parser = new QueryParser(Fields.CONTENT, this.analyzer);
+        QueryParser parser = new QueryParser(queryTarget.getField(), this.analyzer);
 
         // lowercase as wildcard parsing is case-sensitive
         query = query.toLowerCase();
 
         // Parse the user query string to obtain a Lucene Query object
-        Query luceneQuery = parser.parse(query);
+        return parser.parse(query);
+    }
+
+    private VerifiedQuery.Verifier contentVerifier(Pattern pattern) {
+        Set<String> fields = Set.of(Fields.ABS_PATH, Fields.MIME_TYPE);
+
+        return context -> {
+            StoredFields storedFields = context.reader().storedFields();
+
+            return docId -> {
+                Document document = storedFields.document(docId, fields);
 
-        return getMatches(luceneQuery);
+                // directories of the combined index
+                if(document.get(Fields.MIME_TYPE) == null)
+                    return false;
+
+                MimeType mimeType = MimeType.valueOf(document.get(Fields.MIME_TYPE));
+
+                // content-less entries of skipped files
+                if(!isMimeTypeAllowed(mimeType) || mimeType.getParser() == null)
+                    return false;
+
+                return containsMatch(mimeType, document.get(Fields.ABS_PATH), pattern);
+            };
+        };
     }
 
-    private String[] getMatches(Query query) throws IOException {
-        TopDocs topDocs = searcher.search(query, this.nTopDocs); // Adjust the number of results as needed
+    // under the same limits as indexing: what was not indexed does not match either
+    private boolean containsMatch(MimeType mimeType, String absolutePath, Pattern pattern) {
+        if(ArchiveReader.isEntryPath(absolutePath))
+            return entryContainsMatch(mimeType, absolutePath, pattern);
 
-        // Process the search results
-        return processSearchResults(topDocs, searcher);
+        try {
+            Path file = Path.of(absolutePath);
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            String contentHash = needsHash(mimeType, attributes.size())? extractionCache.hash(file, attributes): null;
+
+            return containsMatch(extract(mimeType, file.toFile(), attributes.size(), contentHash), mimeType, pattern);
+        } catch (IOException e) {
+            log.severe("cannot verify: " + absolutePath + " | " + e);
+            return false;
+        }
+    }
+
+    // the entry is streamed from its archive again
+    private boolean entryContainsMatch(MimeType mimeType, String entryPath, Pattern pattern) {
+        boolean[] found = {false};
+
+        try {
+            archiveReader.read(ArchiveReader.archiveOf(entryPath), entry -> {
+                if(!entry.getPath().equals(entryPath))
+                    return true;
+
+                found[0] = containsMatch(parseSupervisor.parse(mimeType.getParser(), entry.getStream(), entryPath, entry.getSize(), parseTimer(mimeType)), mimeType, pattern);
+                return false;
+            });
+        } catch (IOException e) {
+            log.severe("cannot verify: " + entryPath + " | " + e);
+        }
+
+        return found[0];
+    }
+
+    private static boolean containsMatch(ParseSupervisor.Result parsed, MimeType mimeType, Pattern pattern) {
+        Stream<String> texts = parsed.getChunks().stream();
+
+        // the chunks of a text file hold many lines
+        if(mimeType == MimeType.TEXT)
+            texts = texts.flatMap(String::lines);
+
+        return texts.anyMatch(text -> pattern.matcher(text).find());
+    }
+
+    @SneakyThrows
+    @Override
+    public void close() {
+        if(watch)
+            watcher.close();
+
+        this.searcherManager.close();
+        this.searcherFactory.close();
+        this.writer.close();
+        this.index.close();
+        this.parseSupervisor.close();
+        this.extractionCache.close();
+    }
+
+    @Override
+    public Sort getSort() {
+        return metadataFilter.getSort();
+    }
+
+    @Override
+    public SearchCache getSearchCache() {
+        return searchCache;
+    }
+
+    // a query without a prefix compiles to another one once the target is switched
+    @Override
+    public String getQueryKey(String query, boolean isLuceneQuery) {
+        return SearchCache.key(query, isLuceneQuery, regex, target.name());
+    }
+
+    @Override
+    public IndexSearcher acquireSearcher() throws IOException {
+        return searcherManager.acquire();
+    }
+
+    @Override
+    public void releaseSearcher(IndexSearcher searcher) throws IOException {
+        searcherManager.release(searcher);
+    }
+
+    @Override
+    public String formatMatch(IndexSearcher searcher, Query query, Document document) throws IOException {
+        StringBuilder match = new StringBuilder(formatMatch(document));
+
+        // directories have no lines
+        if(lines && document.get(Fields.MIME_TYPE) != null && query instanceof CompiledQuery && ((CompiledQuery) query).getContentQuery() != null)
+            appendSnippets(match, searcher, ((CompiledQuery) query).getContentQuery(), document);
+
+        if(collapseDuplicates)
+            appendCopies(match, searcher, document);
+
+        return match.toString();
+    }
+
+    private void appendSnippets(StringBuilder match, IndexSearcher searcher, Query contentQuery, Document document) throws IOException {
+        Query fragmentQuery = new BooleanQuery.Builder()
+                .add(relax(contentQuery), BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term(Fields.ABS_PATH, document.get(Fields.ABS_PATH))), BooleanClause.Occur.FILTER)
+                .add(new TermQuery(new Term(Fields.DOC_TYPE, DocTypes.FRAGMENT)), BooleanClause.Occur.FILTER)
+                .build();
+
+        // best fragments, shown in file order
+        TopDocs topDocs = searcher.search(fragmentQuery, new TopScoreDocCollectorManager(MAX_SNIPPETS, null, Integer.MAX_VALUE));
+        ScoreDoc[] hits = topDocs.scoreDocs.clone();
+        Arrays.sort(hits, Comparator.comparingInt(hit -> hit.doc));
+
+        SnippetBuilder snippetBuilder = new SnippetBuilder(analyzer, Fields.CONTENT, contentQuery, highlightMarks);
+        MimeType mimeType = MimeType.valueOf(document.get(Fields.MIME_TYPE));
+        String unit = mimeType == MimeType.TEXT? "line": mimeType == MimeType.PDF? "page": "part";
+
+        for (ScoreDoc hit : hits) {
+            Document fragment = searcher.storedFields().document(hit.doc);
+
+            match.append(String.format("%n%8s %-12s %s", "", unit + " " + fragment.get(Fields.LOCATION) + ":", snippetBuilder.build(fragment.get(Fields.FRAGMENT))));
+        }
+
+        long nMore = topDocs.totalHits.value - hits.length;
+        if(nMore > 0)
+            match.append(String.format("%n%8s (%d more)", "", nMore));
+    }
+
+    // the other files with the same content, hidden from the results: the first ones in the index, by path
+    private void appendCopies(StringBuilder match, IndexSearcher searcher, Document document) throws IOException {
+        String contentHash = document.get(Fields.CONTENT_HASH);
+
+        if(contentHash == null)
+            return;
+
+        Query copiesQuery = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(Fields.CONTENT_HASH, contentHash)), BooleanClause.Occur.FILTER)
+                .add(new TermQuery(new Term(Fields.ABS_PATH, document.get(Fields.ABS_PATH))), BooleanClause.Occur.MUST_NOT)
+                .build();
+
+        TopDocs topDocs = searcher.search(copiesQuery, new TopScoreDocCollectorManager(MAX_COPIES, null, Integer.MAX_VALUE));
+
+        List<String> copies = new ArrayList<>();
+        for (ScoreDoc hit : topDocs.scoreDocs) {
+            copies.add(searcher.storedFields().document(hit.doc, Set.of(Fields.ABS_PATH)).get(Fields.ABS_PATH));
+        }
+
+        copies.sort(Comparator.naturalOrder());
+        for (String copy : copies) {
+            match.append(String.format("%n%8s %-12s %s", "", "copy:", makePathClickable(copy)));
+        }
+
+        long nMore = topDocs.totalHits.value - copies.size();
+        if(nMore > 0)
+            match.append(String.format("%n%8s (%d more)", "", nMore));
+    }
+
+    // a fragment holds a part of the file: it matches if it has any part of the query
+    private static Query relax(Query query) {
+        if(query instanceof VerifiedQuery) {
+            Pattern pattern = ((VerifiedQuery) query).getPattern();
+            return new VerifiedQuery(((VerifiedQuery) query).getApproximation(), pattern, VerifiedQuery.storedField(Fields.FRAGMENT, pattern));
+        }
+
+        if(!(query instanceof BooleanQuery))
+            return query;
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+            builder.add(clause.getQuery(), clause.isProhibited()? BooleanClause.Occur.MUST_NOT: BooleanClause.Occur.SHOULD);
+        }
+
+        return builder.build();
     }
 
     @Override
     public String formatMatch(Document document) {
-        return String.format("%-3s | %-40s | %s", document.get(Fields.MIME_TYPE), document.get(Fields.FILE_NAME), makePathClickable(document.get(Fields.ABS_PATH)));
+        String type = document.get(Fields.MIME_TYPE) == null? FileType.DIR.name(): document.get(Fields.MIME_TYPE);
+
+        return String.format("%-3s | %-40s | %s", type, document.get(Fields.FILE_NAME), makePathClickable(document.get(Fields.ABS_PATH)));
     }
 }
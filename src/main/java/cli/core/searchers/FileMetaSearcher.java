@@ -1,15 +1,28 @@
 package cli.core.searchers;
 
+import cli.config.Config;
 import cli.core.analyzers.CustomWhiteSpaceAnalyzer;
 import cli.core.enums.FileType;
+import cli.core.enums.IndexStore;
+import cli.core.indexers.FileWalker;
+import cli.core.indexers.IndexUpdater;
+import cli.core.indexers.IndexWatcher;
+import cli.core.indexers.IndexWriterSettings;
+import cli.core.indexers.IndexedFiles;
+import cli.core.indexers.MetadataFields;
+import cli.core.queries.MetadataFilter;
+import cli.core.queries.RegexQueryBuilder;
+import cli.core.queries.SubstringQueryBuilder;
+import cli.core.queries.VerifiedQuery;
+import cli.metrics.Timer;
 import lombok.SneakyThrows;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
+import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 
 import java.io.File;
 import java.io.IOException;
@@ -17,48 +30,99 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
-import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 import static cli.config.GlobalLogger.log;
+import static cli.metrics.Metrics.metrics;
 
 
-public class FileMetaSearcher implements ISearcher {
-    private static final int FILE_COMMIT_THRESHOLD = 50;
+public class FileMetaSearcher implements ISearcher, IndexUpdater {
+    private static final Timer ADD_DOCUMENT_TIMER = metrics.timer("addDocument");
+    private static final Timer COMMIT_TIMER = metrics.timer("commit");
+    private static final Timer OPEN_SEARCHER_TIMER = metrics.timer("openSearcher");
 
     private static class Fields {
         final static String FILE_NAME = "fileName";
         final static String FILE_TYPE = "fileType";
         final static String ABS_PATH = "absPath";
+        final static String SIZE = MetadataFields.SIZE;
+        final static String MODIFIED = MetadataFields.MODIFIED;
     }
 
     Directory index;
     IndexWriter writer;
     File rootDir;
-    IndexSearcher searcher;
+    SearcherManager searcherManager;
+    ConcurrentSearcherFactory searcherFactory;
+    SearchCache searchCache;
     Analyzer analyzer;
-    int nTopDocs;
+    boolean suffixIndex;
+    SubstringQueryBuilder queryBuilder;
+    boolean regex;
+    RegexQueryBuilder regexQueryBuilder;
+    MetadataFilter metadataFilter;
     int nFilesProcessed = 0;
+    int ramBufferMB;
+    boolean incremental;
+    IndexStore indexStore;
+    boolean watch;
+    IndexedFiles indexedFiles;
+    IndexWatcher watcher;
+    FileWalker walker;
 
     public FileMetaSearcher() {}
 
-    public FileMetaSearcher(Path indexDir, File rootDir) {
+    public FileMetaSearcher(Path indexDir, File rootDir, Config config) {
         log.info("Initializing file metadata searcher...");
 
         this.rootDir = rootDir;
+        this.incremental = config.isIncremental();
+        this.indexStore = config.getIndexStore();
+        this.watch = config.isWatch();
+        this.ramBufferMB = config.getIndexRamBufferMB();
         this.analyzer = new CustomWhiteSpaceAnalyzer();
-        this.nTopDocs = Integer.MAX_VALUE;
+        this.suffixIndex = config.isSuffixIndex();
+        this.queryBuilder = new SubstringQueryBuilder(Fields.FILE_NAME, suffixIndex);
+        this.regex = config.isRegex();
+        this.searchCache = config.isSearchCache()? new SearchCache(): null;
+        this.regexQueryBuilder = new RegexQueryBuilder(Fields.FILE_NAME);
+        this.metadataFilter = new MetadataFilter(config);
+        this.walker = new FileWalker(rootDir.toPath(), config);
+        this.searcherFactory = new ConcurrentSearcherFactory(config.getSearchThreads());
 
         buildIndex(indexDir);
         openSearcher();
+
+        if(watch)
+            startWatching();
     }
 
     @SneakyThrows
     private void openSearcher() {
         log.info("Opening searcher...");
 
-        this.searcher = new IndexSearcher(DirectoryReader.open(this.index));
+        // the writer stays open and the searcher reads from it (near-real-time), so that an ephemeral index
+        // is never committed and the watcher can refresh the searcher after its updates
+        long start = System.nanoTime();
+        this.searcherManager = new SearcherManager(this.writer, searcherFactory);
+        OPEN_SEARCHER_TIMER.stop(start);
+
+        log.info("Searcher opened: " + describeIndex());
+    }
+
+    private String describeIndex() throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+
+        try {
+            return IndexWriterSettings.describe(searcher.getIndexReader());
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
 
-        log.info("Searcher opened.");
+    @SneakyThrows
+    private void startWatching() {
+        this.watcher = new IndexWatcher(walker, this);
     }
 
     @SneakyThrows
@@ -66,9 +130,12 @@ public class FileMetaSearcher implements ISearcher {
         log.info("Initializing index...");
 
         IndexWriterConfig config = new IndexWriterConfig(this.analyzer);
-        // Create a new index in the directory, removing any
-        // previously indexed documents:
-        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        // Create a new index in the directory, removing any previously indexed documents,
+        // unless the index is persistent and only has to be brought up to date
+        config.setOpenMode(incremental? IndexWriterConfig.OpenMode.CREATE_OR_APPEND: IndexWriterConfig.OpenMode.CREATE);
+        // an ephemeral index is deleted on exit anyway, only a persistent one is worth the fsyncs
+        config.setCommitOnClose(incremental);
+        IndexWriterSettings.tune(config, ramBufferMB, incremental);
         this.writer = new IndexWriter(this.index, config);
 
         log.info("Index initialized");
@@ -76,73 +143,138 @@ public class FileMetaSearcher implements ISearcher {
 
     @SneakyThrows
     private void buildIndex(Path indexDir) {
-        this.index = FSDirectory.open(indexDir);
+        this.index = indexStore.open(indexDir);
+        this.indexedFiles = incremental
+                ? IndexedFiles.load(this.index, Fields.ABS_PATH, Fields.SIZE, Fields.MODIFIED)
+                : IndexedFiles.empty();
+
         initializeIndexWriter();
         addDocsToIndex();
     }
 
     private void addDocsToIndex() throws IOException {
         // recursively read files and folder metadata and add to index
-        Files.walk(rootDir.toPath())
-                .filter(isFileOrDirectory())
-                .forEach(this::indexFile);
+        // (ignored subtrees are skipped, the attributes read by the walk are reused)
+        walker.walk(rootDir.toPath(), (path, attributes) -> {
+            if(attributes.isRegularFile() || attributes.isDirectory())
+                indexFile(path, attributes);
+        });
 
-        // Commit and close the index writer
-        commitAndClose();
+        removeDeletedFiles();
+
+        // Commit the index writer, it stays open for the searcher
+        commitIfPersistent();
     }
 
-    // Custom predicate to filter both files and directories
-    private static Predicate<Path> isFileOrDirectory() {
-        return path -> {
-            try {
-                log.info("checking path: " + path.toAbsolutePath());
+    private void removeDeletedFiles() throws IOException {
+        // files that are in the persistent index but were not seen during the walk
+        Term[] removed = indexedFiles.getRemovedPaths().stream()
+                .map(path -> new Term(Fields.ABS_PATH, path))
+                .toArray(Term[]::new);
 
-                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if(removed.length > 0) {
+            writer.deleteDocuments(removed);
 
-                return attributes.isRegularFile() || attributes.isDirectory();
-            } catch (IOException e) {
-                log.severe("Error predicating on file: " + path.toAbsolutePath());
-                Arrays.stream(e.getStackTrace()).forEach(st -> log.severe(st.toString()));
+            log.info("files removed from index: " + removed.length);
+        }
+    }
 
-                // Handle IOException if necessary
-                return false; // Return false in case of an error
-            }
-        };
+    // documents are replaced by path once they may already be in the index
+    private boolean updatesDocuments() {
+        return incremental || watch;
+    }
+
+    private void writeDocument(String absolutePath, Document document) throws IOException {
+        long start = System.nanoTime();
+
+        if(updatesDocuments())
+            writer.updateDocument(new Term(Fields.ABS_PATH, absolutePath), document);
+        else
+            writer.addDocument(document);
+
+        ADD_DOCUMENT_TIMER.stop(start);
     }
 
-    private void commitAndClose() throws IOException {
-        writer.commit();
-        writer.close();
+    private void commitIfPersistent() throws IOException {
+        if(incremental) {
+            long start = System.nanoTime();
+            writer.commit();
+            COMMIT_TIMER.stop(start);
+        }
     }
 
-    private void indexFile(Path filePath) {
+    @Override
+    public void updatePath(Path path) {
+        final BasicFileAttributes attributes;
+
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            log.info("skipping path: " + path.toAbsolutePath() + " | " + e.getMessage());
+            return;
+        }
+
+        if(attributes.isRegularFile() || attributes.isDirectory())
+            indexFile(path, attributes);
+    }
+
+    @Override
+    @SneakyThrows
+    public void deletePath(Path path) {
+        final String absolutePath = path.toFile().getAbsolutePath();
+
+        writer.deleteDocuments(new Term(Fields.ABS_PATH, absolutePath));
+        writer.deleteDocuments(new PrefixQuery(new Term(Fields.ABS_PATH, absolutePath + File.separator)));
+    }
+
+    @Override
+    @SneakyThrows
+    public void refresh() {
+        // a persistent index is kept current on disk as well
+        commitIfPersistent();
+
+        searcherManager.maybeRefresh();
+    }
+
+    private void indexFile(Path filePath, BasicFileAttributes attributes) {
         // Add the document to the Lucene index
         try {
             final File file = filePath.toFile();
             final String absolutePath = file.getAbsolutePath();
-            final FileType fileType = file.isFile()? FileType.FILE: FileType.DIR;
+            final FileType fileType = attributes.isRegularFile()? FileType.FILE: FileType.DIR;
             final String name = file.getName();
 
+            if(indexedFiles.isUpToDate(absolutePath, attributes)) {
+                metrics.count("files.unchanged");
+                return;
+            }
+
             // Create a Lucene document for the file
             Document document = new Document();
             document.add(new TextField(Fields.FILE_NAME, name, Field.Store.YES)); // Index file name
 
+            if(suffixIndex)
+                document.add(new TextField(CustomWhiteSpaceAnalyzer.suffixField(Fields.FILE_NAME), name, Field.Store.NO));
+
+            if(regex)
+                document.add(new TextField(CustomWhiteSpaceAnalyzer.trigramField(Fields.FILE_NAME), name, Field.Store.NO));
+
             // Optionally, index other metadata such as file path
-            document.add(new StoredField(Fields.ABS_PATH, absolutePath));
+            // (indexed as a single term, the persistent index updates documents by path)
+            document.add(new StringField(Fields.ABS_PATH, absolutePath, Field.Store.YES));
 
             // store fileType
             document.add(new StoredField(Fields.FILE_TYPE, fileType.name()));
 
-            writer.addDocument(document);
-            nFilesProcessed++;
-
-
-            if(nFilesProcessed%FILE_COMMIT_THRESHOLD == 0) {
-                writer.commit();
+            // size, modification time, extension... to filter and sort on
+            // (size and modification time also detect changed files on the next run)
+            MetadataFields.add(document, absolutePath, name, attributes.size(), attributes.lastModifiedTime().toMillis(), walker.depthOf(filePath));
 
-                log.info("commiting writer. files processed: " + nFilesProcessed);
-            }
+            writeDocument(absolutePath, document);
+            nFilesProcessed++;
+            metrics.count("files.indexed");
         } catch (Exception e) {
+            metrics.count("files.errors");
             log.severe("ERROR in file: " + filePath.toAbsolutePath() + ". Skipping file");
             Arrays.stream(e.getStackTrace()).forEach(st -> log.severe(st.toString()));
             return;
@@ -150,74 +282,65 @@ public class FileMetaSearcher implements ISearcher {
     }
 
     @Override
-    @SneakyThrows
-    public String[] getMatches(final String query) {
-        // Split the query into tokens using whitespace
-        String[] tokens = query.toLowerCase().split("\\s+");
-
-        BooleanQuery.Builder booleanBuilder = new BooleanQuery.Builder();
+    public Query buildQuery(String query, boolean isLuceneQuery) throws ParseException {
+        return metadataFilter.apply(buildNameQuery(query, isLuceneQuery));
+    }
 
-        if (tokens.length > 0) {
-            final String searchTerm = tokens.length == 1? "*" + tokens[0] + "*": "*" + tokens[0];
+    @Override
+    public Sort getSort() {
+        return metadataFilter.getSort();
+    }
 
-            booleanBuilder.add(
-                    new WildcardQuery(new Term(Fields.FILE_NAME, searchTerm)), BooleanClause.Occur.MUST
-            );
+    private Query buildNameQuery(String query, boolean isLuceneQuery) throws ParseException {
+        if(!isLuceneQuery && regex) {
+            // candidates by trigrams, verified against the stored file name
+            Pattern pattern = Pattern.compile(query);
+            return regexQueryBuilder.build(pattern, VerifiedQuery.storedField(Fields.FILE_NAME, pattern));
         }
 
-        if(tokens.length > 2) {
-            // Create a PhraseQuery to ensure the tokens are contiguous and in order
-            PhraseQuery.Builder phraseBuilder = new PhraseQuery.Builder();
-
-            // Add terms to the PhraseQuery (both original and reversed)
-            for (int i = 1; i < tokens.length - 1; i++) {
-                // Exact match for middle tokens
-                phraseBuilder.add(new Term(Fields.FILE_NAME, tokens[i]), i);
-            }
-
-            // Set the maximum number of other words permitted between words in query phrase
-            // If you want the words to be contiguous, set it to 0
-            phraseBuilder.setSlop(0);
+        if(!isLuceneQuery)
+            return queryBuilder.build(query);
 
-            booleanBuilder.add(phraseBuilder.build(), BooleanClause.Occur.MUST);
-        }
-
-        if(tokens.length > 1) {
-            PrefixQuery prefixQuery = new PrefixQuery(new Term(Fields.FILE_NAME, tokens[tokens.length - 1]));
-            booleanBuilder.add(prefixQuery, BooleanClause.Occur.MUST);
-        }
+        // Create a QueryParser for the specified field and analyzer
+        QueryParser parser = new QueryParser(Fields.FILE_NAME, this.analyzer);
 
-        BooleanQuery booleanQuery = booleanBuilder.build();
+        // lowercase as wildcard parsing is case-sensitive
+        query = query.toLowerCase();
 
-        return getMatches(booleanQuery);
+        // Parse the user query string to obtain a Lucene Query object
+        return parser.parse(query);
     }
 
     @SneakyThrows
     @Override
     public void close() {
+        if(watch)
+            watcher.close();
+
+        this.searcherManager.close();
+        this.searcherFactory.close();
+        this.writer.close();
         this.index.close();
     }
 
-    @SneakyThrows
     @Override
-    public String[] getLuceneQueryMatches(String query) {
-        // Create a QueryParser for the specified field and analyzer
-        QueryParser parser = new QueryParser(Fields.FILE_NAME, this.analyzer);
-
-        // lowercase as wildcard parsing is case-sensitive
-        query = query.toLowerCase();
-
-        // Parse the user query string to obtain a Lucene Query object
-        Query luceneQuery = parser.parse(query);
+    public SearchCache getSearchCache() {
+        return searchCache;
+    }
 
-        return getMatches(luceneQuery);
+    @Override
+    public String getQueryKey(String query, boolean isLuceneQuery) {
+        return SearchCache.key(query, isLuceneQuery, regex, "name");
     }
 
-    private String[] getMatches(Query query) throws IOException {
-        TopDocs topDocs = searcher.search(query, this.nTopDocs); // Adjust the number of results as needed
+    @Override
+    public IndexSearcher acquireSearcher() throws IOException {
+        return searcherManager.acquire();
+    }
 
-        // Process the search results
-        return processSearchResults(topDocs, searcher);
+    @Override
+    public void releaseSearcher(IndexSearcher searcher) throws IOException {
+        searcherManager.release(searcher);
     }
 
     @Override
@@ -1,27 +1,152 @@
 package cli.core.searchers;
 
+import cli.core.enums.SearchTarget;
+import lombok.SneakyThrows;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollectorManager;
+import org.apache.lucene.search.TopScoreDocCollectorManager;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static cli.metrics.Metrics.metrics;
 
 public interface ISearcher {
-    String[] getMatches(final String query);
+    // hits collected per round trip to the index, bounds the priority queue however many hits are streamed
+    int PAGE_SIZE = 1000;
+
+    Query buildQuery(String query, boolean isLuceneQuery) throws Exception;
+
+    IndexSearcher acquireSearcher() throws IOException;
+
+    void releaseSearcher(IndexSearcher searcher) throws IOException;
+
     void close();
 
-    String[] getLuceneQueryMatches(String query);
+    // order of the matches, null for relevance
+    default Sort getSort() {
+        return null;
+    }
 
-    default String[] processSearchResults(TopDocs topDocs, IndexSearcher searcher) throws IOException {
-        // Convert TopDocs to an array of matching file names
-        String[] matches = new String[topDocs.scoreDocs.length];
-        for (int i = 0; i < topDocs.scoreDocs.length; i++) {
-            int docId = topDocs.scoreDocs[i].doc;
-            Document doc = searcher.storedFields().document(docId);
+    // compiled queries and first hits kept for the queries asked again, null to search every time
+    default SearchCache getSearchCache() {
+        return null;
+    }
 
-            matches[i] = formatMatch(doc);
+    // the cache key of a query, see SearchCache#key: the searchers that know how their queries are compiled
+    // tell which texts give the same query
+    default String getQueryKey(String query, boolean isLuceneQuery) {
+        return SearchCache.key(query, isLuceneQuery, true, getClass().getSimpleName());
+    }
+
+    // what the queries without a prefix search, only the combined index has more than one target
+    default void setTarget(SearchTarget target) {
+        throw new UnsupportedOperationException("a single target: " + getClass().getSimpleName());
+    }
+
+    default String[] getMatches(final String query) {
+        return collectMatches(query, false);
+    }
+
+    default String[] getLuceneQueryMatches(String query) {
+        return collectMatches(query, true);
+    }
+
+    private String[] collectMatches(String query, boolean isLuceneQuery) {
+        List<String> matches = new ArrayList<>();
+
+        streamMatches(query, isLuceneQuery, null, 0, Integer.MAX_VALUE, new MatchListener() {
+            @Override
+            public void onStart(long totalHits) {}
+
+            @Override
+            public void onMatch(String match) {
+                matches.add(match);
+            }
+        });
+
+        return matches.toArray(new String[0]);
+    }
+
+    /**
+     * Streams the matches ranked after the given hit (null for the first one): skips offset of them and
+     * hands at most limit to the listener, each as soon as its stored fields are loaded.
+     * Latencies go to the "query.search" (up to the total number of hits) and "query.total" (up to the last
+     * match streamed) histograms.
+     *
+     * @return the last hit streamed, to continue from with searchAfter
+     */
+    @SneakyThrows
+    default ScoreDoc streamMatches(String query, boolean isLuceneQuery, ScoreDoc after, long offset, long limit, MatchListener listener) {
+        long start = System.nanoTime();
+        SearchCache cache = getSearchCache();
+        Query luceneQuery = cache == null
+                ? buildQuery(query, isLuceneQuery)
+                : cache.getQuery(getQueryKey(query, isLuceneQuery), () -> buildQuery(query, isLuceneQuery));
+        IndexSearcher searcher = acquireSearcher();
+
+        try {
+            return streamSearchResults(searcher, luceneQuery, after, offset, limit, listener, start);
+        } finally {
+            releaseSearcher(searcher);
+            metrics.histogram("query.total").stop(start);
+        }
+    }
+
+    private ScoreDoc streamSearchResults(IndexSearcher searcher, Query query, ScoreDoc after, long offset, long limit, MatchListener listener, long start) throws IOException {
+        long toSkip = offset;
+        long toStream = limit;
+
+        Sort sort = getSort();
+
+        // the first round counts every hit, the header needs the exact total
+        int nHits = nextPageSize(toSkip, toStream);
+        ScoreDoc firstAfter = after;
+        int firstHits = nHits;
+        SearchCache.Search firstRound = () -> sort == null
+                ? searcher.search(query, new TopScoreDocCollectorManager(firstHits, firstAfter, Integer.MAX_VALUE))
+                : searcher.search(query, new TopFieldCollectorManager(sort, firstHits, (FieldDoc) firstAfter, Integer.MAX_VALUE));
+
+        // a page further down (interactive paging) is never the same twice
+        SearchCache cache = getSearchCache();
+        TopDocs topDocs = cache == null || after != null? firstRound.run(): cache.getResults(searcher, query, sort, nHits, firstRound);
+        metrics.histogram("query.search").stop(start);
+        listener.onStart(topDocs.totalHits.value);
+
+        while (true) {
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                after = scoreDoc;
+
+                if (toSkip > 0) {
+                    toSkip--;
+                    continue;
+                }
+
+                Document doc = searcher.storedFields().document(scoreDoc.doc);
+                listener.onMatch(formatMatch(searcher, query, doc));
+
+                if (--toStream == 0)
+                    return after;
+            }
+
+            // fewer hits than asked for: nothing left
+            if (topDocs.scoreDocs.length < nHits)
+                return after;
+
+            nHits = nextPageSize(toSkip, toStream);
+            topDocs = sort == null? searcher.searchAfter(after, query, nHits): searcher.searchAfter(after, query, nHits, sort);
         }
-        return matches;
+    }
+
+    private static int nextPageSize(long toSkip, long toStream) {
+        return (int) Math.max(1, Math.min(PAGE_SIZE, toSkip + toStream));
     }
 
     default String makePathClickable(String path) {
@@ -29,4 +154,9 @@ public interface ISearcher {
     }
 
     String formatMatch(Document document);
+
+    // searchers that can tell where the query matched within the document add it to the match
+    default String formatMatch(IndexSearcher searcher, Query query, Document document) throws IOException {
+        return formatMatch(document);
+    }
 }
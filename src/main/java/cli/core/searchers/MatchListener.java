@@ -0,0 +1,12 @@
+package cli.core.searchers;
+
+
+/**
+ * Receives the matches of a query one by one, as soon as they are loaded from the index.
+ */
+public interface MatchListener {
+    // called once, before the first match, with the total number of hits of the query
+    void onStart(long totalHits);
+
+    void onMatch(String match);
+}
@@ -0,0 +1,55 @@
+package cli.core.searchers;
+
+import cli.core.queries.SubstringLineMatcher;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static cli.config.GlobalLogger.log;
+
+
+/**
+ * Index-free alternative to {@link PipeStreamSearcher} for a single plain query (or regex): every line of
+ * the piped input is tested as it arrives and a match is handed to the listener right away, in constant memory.
+ * Matches come in input order instead of ranked.
+ */
+public class PipeStreamGrep {
+    private final Predicate<String> matcher;
+
+    public PipeStreamGrep(String query, boolean regex) {
+        this.matcher = regex
+                ? Pattern.compile(query).asPredicate()
+                : new SubstringLineMatcher(query)::matches;
+    }
+
+    /**
+     * Skips the first offset matching lines and streams at most limit of them.
+     * Stops reading the input once the limit is reached.
+     *
+     * @return number of matching lines streamed
+     */
+    public long run(long offset, long limit, MatchListener listener) throws IOException {
+        long nMatches = 0;
+        long nLines = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
+            String line;
+            while (nMatches < offset + limit && (line = reader.readLine()) != null) {
+                nLines++;
+
+                if (!matcher.test(line))
+                    continue;
+
+                if (nMatches++ >= offset)
+                    listener.onMatch(line);
+            }
+        }
+
+        log.info("lines read: " + nLines + " | matches: " + nMatches);
+
+        return Math.max(0, nMatches - offset);
+    }
+}
@@ -1,7 +1,14 @@
 package cli.core.searchers;
 
 
+import cli.config.Config;
 import cli.core.analyzers.CustomWhiteSpaceAnalyzer;
+import cli.core.enums.IndexStore;
+import cli.core.indexers.IndexWriterSettings;
+import cli.core.queries.RegexQueryBuilder;
+import cli.core.queries.SubstringQueryBuilder;
+import cli.core.queries.VerifiedQuery;
+import cli.metrics.Timer;
 import lombok.SneakyThrows;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
@@ -11,23 +18,25 @@ import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.regex.Pattern;
 
 import static cli.config.GlobalLogger.log;
+import static cli.metrics.Metrics.metrics;
 
 
 public class PipeStreamSearcher implements ISearcher {
-    // commit every 500 lines
-    private static final int LINE_COMMIT_THRESHOLD = 500;
+    private static final Timer ADD_DOCUMENT_TIMER = metrics.timer("addDocument");
+    private static final Timer OPEN_SEARCHER_TIMER = metrics.timer("openSearcher");
 
     private static class Fields {
         public static final String LINE = "LINE";
@@ -35,14 +44,29 @@ public class PipeStreamSearcher implements ISearcher {
 
     Directory index;
     IndexWriter writer;
+    DirectoryReader reader;
     IndexSearcher searcher;
+    ConcurrentSearcherFactory searcherFactory;
+    SearchCache searchCache;
     Analyzer analyzer;
-    int nTopDocs;
+    boolean suffixIndex;
+    SubstringQueryBuilder queryBuilder;
+    boolean regex;
+    RegexQueryBuilder regexQueryBuilder;
+    IndexStore indexStore;
     int nLinesProcessed = 0;
+    int ramBufferMB;
 
-    public PipeStreamSearcher(Path indexDir) {
+    public PipeStreamSearcher(Path indexDir, Config config) {
         this.analyzer = new CustomWhiteSpaceAnalyzer();
-        this.nTopDocs = Integer.MAX_VALUE;   // need 100% recall as often the input length is small
+        this.indexStore = config.getIndexStore();
+        this.ramBufferMB = config.getIndexRamBufferMB();
+        this.suffixIndex = config.isSuffixIndex();
+        this.queryBuilder = new SubstringQueryBuilder(Fields.LINE, suffixIndex);
+        this.regex = config.isRegex();
+        this.searchCache = config.isSearchCache()? new SearchCache(): null;
+        this.regexQueryBuilder = new RegexQueryBuilder(Fields.LINE);
+        this.searcherFactory = new ConcurrentSearcherFactory(config.getSearchThreads());
 
         buildIndex(indexDir);
         openSearcher();
@@ -50,7 +74,13 @@ public class PipeStreamSearcher implements ISearcher {
 
     @SneakyThrows
     private void openSearcher() {
-        this.searcher = new IndexSearcher(DirectoryReader.open(this.index));
+        // near-real-time reader straight from the writer, the index is never committed
+        long start = System.nanoTime();
+        this.reader = DirectoryReader.open(this.writer);
+        this.searcher = searcherFactory.newSearcher(this.reader, null);
+        OPEN_SEARCHER_TIMER.stop(start);
+
+        log.info("Searcher opened: " + IndexWriterSettings.describe(this.reader));
     }
 
     @SneakyThrows
@@ -59,12 +89,15 @@ public class PipeStreamSearcher implements ISearcher {
         // Create a new index in the directory, removing any
         // previously indexed documents:
         config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        // the index only lives as long as the process, it is never worth an fsync
+        config.setCommitOnClose(false);
+        IndexWriterSettings.tune(config, ramBufferMB, false);
         this.writer = new IndexWriter(this.index, config);
     }
 
     @SneakyThrows
     private void buildIndex(Path indexDir) {
-        this.index = FSDirectory.open(indexDir);
+        this.index = indexStore.open(indexDir);
         initializeIndexWriter();
         addDocsToIndex();
     }
@@ -76,20 +109,13 @@ public class PipeStreamSearcher implements ISearcher {
                 indexLine(line);
             }
 
-            log.info("lines written successfully");
+            log.info("lines written successfully: " + nLinesProcessed);
 
         } catch (IOException e) {
             Arrays.stream(e.getStackTrace()).forEach(st -> log.severe(st.toString()));
             throw new RuntimeException(e);
         }
 
-        // Commit and close the index writer
-        commitAndClose();
-    }
-
-    private void commitAndClose() throws IOException {
-        writer.commit();
-        writer.close();
     }
 
     private void indexLine(String line) {
@@ -97,17 +123,19 @@ public class PipeStreamSearcher implements ISearcher {
         Document document = new Document();
         document.add(new TextField(Fields.LINE, line, Field.Store.YES)); // Index file name
 
+        if(suffixIndex)
+            document.add(new TextField(CustomWhiteSpaceAnalyzer.suffixField(Fields.LINE), line, Field.Store.NO));
+
+        if(regex)
+            document.add(new TextField(CustomWhiteSpaceAnalyzer.trigramField(Fields.LINE), line, Field.Store.NO));
+
         // Add the document to the Lucene index
         try {
+            long start = System.nanoTime();
             writer.addDocument(document);
+            ADD_DOCUMENT_TIMER.stop(start);
 
             nLinesProcessed++;
-
-            if(nLinesProcessed% LINE_COMMIT_THRESHOLD == 0) {
-                writer.commit();
-
-                log.info("commiting writer. lines processed: " + nLinesProcessed);
-            }
         } catch (IOException e) {
             log.severe("ERROR occured while indexing line: " + line);
             Arrays.stream(e.getStackTrace()).forEach(st -> log.severe(st.toString()));
@@ -116,74 +144,53 @@ public class PipeStreamSearcher implements ISearcher {
     }
 
     @Override
-    @SneakyThrows
-    public String[] getMatches(final String query) {
-        // Split the query into tokens using whitespace
-        String[] tokens = query.toLowerCase().split("\\s+");
-
-        BooleanQuery.Builder booleanBuilder = new BooleanQuery.Builder();
-
-        if (tokens.length > 0) {
-            final String searchTerm = tokens.length == 1? "*" + tokens[0] + "*": "*" + tokens[0];
-
-            booleanBuilder.add(
-                    new WildcardQuery(new Term(Fields.LINE, searchTerm)), BooleanClause.Occur.MUST
-            );
+    public Query buildQuery(String query, boolean isLuceneQuery) throws ParseException {
+        if(!isLuceneQuery && regex) {
+            // candidates by trigrams, verified against the stored line
+            Pattern pattern = Pattern.compile(query);
+            return regexQueryBuilder.build(pattern, VerifiedQuery.storedField(Fields.LINE, pattern));
         }
 
-        if(tokens.length > 2) {
-            // Create a PhraseQuery to ensure the tokens are contiguous and in order
-            PhraseQuery.Builder phraseBuilder = new PhraseQuery.Builder();
-
-            // Add terms to the PhraseQuery (both original and reversed)
-            for (int i = 1; i < tokens.length - 1; i++) {
-                // Exact match for middle tokens
-                phraseBuilder.add(new Term(Fields.LINE, tokens[i]), i);
-            }
+        if(!isLuceneQuery)
+            return queryBuilder.build(query);
 
-            // Set the maximum number of other words permitted between words in query phrase
-            // If you want the words to be contiguous, set it to 0
-            phraseBuilder.setSlop(0);
-
-            booleanBuilder.add(phraseBuilder.build(), BooleanClause.Occur.MUST);
-        }
-
-        if(tokens.length > 1) {
-            PrefixQuery prefixQuery = new PrefixQuery(new Term(Fields.LINE, tokens[tokens.length - 1]));
-            booleanBuilder.add(prefixQuery, BooleanClause.Occur.MUST);
-        }
+        // Create a QueryParser for the specified field and analyzer
+        QueryParser parser = new QueryParser(Fields.LINE, this.analyzer);
 
-        BooleanQuery booleanQuery = booleanBuilder.build();
+        // lowercase as wildcard parsing is case-sensitive
+        query = query.toLowerCase();
 
-        return getMatches(booleanQuery);
+        // Parse the user query string to obtain a Lucene Query object
+        return parser.parse(query);
     }
 
     @SneakyThrows
     @Override
     public void close() {
+        this.reader.close();
+        this.searcherFactory.close();
+        this.writer.close();
         this.index.close();
     }
 
-    @SneakyThrows
     @Override
-    public String[] getLuceneQueryMatches(String query) {
-        // Create a QueryParser for the specified field and analyzer
-        QueryParser parser = new QueryParser(Fields.LINE, this.analyzer);
-
-        // lowercase as wildcard parsing is case-sensitive
-        query = query.toLowerCase();
-
-        // Parse the user query string to obtain a Lucene Query object
-        Query luceneQuery = parser.parse(query);
+    public SearchCache getSearchCache() {
+        return searchCache;
+    }
 
-        return getMatches(luceneQuery);
+    @Override
+    public String getQueryKey(String query, boolean isLuceneQuery) {
+        return SearchCache.key(query, isLuceneQuery, regex, "line");
     }
 
-    private String[] getMatches(Query query) throws IOException {
-        TopDocs topDocs = searcher.search(query, this.nTopDocs); // Adjust the number of results as needed
+    @Override
+    public IndexSearcher acquireSearcher() {
+        return searcher;
+    }
 
-        // Process the search results
-        return processSearchResults(topDocs, searcher);
+    @Override
+    public void releaseSearcher(IndexSearcher searcher) {
+        // the searcher is opened once and never refreshed
     }
 
     @Override
@@ -0,0 +1,150 @@
+package cli.core.searchers;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import static cli.metrics.Metrics.metrics;
+
+
+/**
+ * What an interactive or daemon session asks again and again: the compiled queries, by normalized text, and
+ * the first page of hits of a query, by version of the index. Both are small LRU maps. A refreshed index (e.g.
+ * by the watcher) has another version, its hits are searched again. Lucene caches the filter clauses per
+ * segment by itself (see {@link ConcurrentSearcherFactory}): this is for the rest, the parsing, the wildcard
+ * automata and the scoring part of the search. Safe to use from the daemon threads.
+ */
+public class SearchCache {
+    static final int MAX_QUERIES = 256;
+    // up to ISearcher.PAGE_SIZE hits each
+    static final int MAX_RESULTS = 64;
+
+    public interface QueryBuilder {
+        Query build() throws Exception;
+    }
+
+    public interface Search {
+        TopDocs run() throws IOException;
+    }
+
+    // the query, the order and the number of hits asked for, on a version of the index
+    private static class ResultKey {
+        final Query query;
+        final Sort sort;
+        final int nHits;
+        final long version;
+
+        ResultKey(Query query, Sort sort, int nHits, long version) {
+            this.query = query;
+            this.sort = sort;
+            this.nHits = nHits;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ResultKey))
+                return false;
+
+            ResultKey key = (ResultKey) other;
+            return nHits == key.nHits && version == key.version && query.equals(key.query) && Objects.equals(sort, key.sort);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, sort, nHits, version);
+        }
+    }
+
+    private final Map<String, Query> queries = lru(MAX_QUERIES);
+    private final Map<ResultKey, TopDocs> results = lru(MAX_RESULTS);
+
+    /**
+     * A key for {@link #getQuery}, the same for the texts that compile to the same query: the tokens of a plain
+     * query are split on whitespace and lower cased by the query builder, an expression is lower cased before
+     * it is parsed (its spaces may be escaped, they are kept).
+     *
+     * @param regex the text is a regex, where spaces and case matter
+     * @param context whatever else the compiled query depends on, e.g. the target of the combined index
+     */
+    public static String key(String query, boolean isLuceneQuery, boolean regex, String context) {
+        String text = query.trim();
+
+        if (isLuceneQuery)
+            text = "e|" + text.toLowerCase(Locale.ROOT);
+        else if (regex)
+            text = "r|" + text;
+        else
+            text = "q|" + text.replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+
+        return context + "|" + text;
+    }
+
+    // built outside the lock: two threads asking for a new query both build it, the last one is kept
+    public Query getQuery(String key, QueryBuilder builder) throws Exception {
+        synchronized (queries) {
+            Query query = queries.get(key);
+
+            if (query != null) {
+                metrics.count("cache.queries.hits");
+                return query;
+            }
+        }
+
+        metrics.count("cache.queries.misses");
+        Query query = builder.build();
+
+        synchronized (queries) {
+            queries.put(key, query);
+        }
+
+        return query;
+    }
+
+    // the first hits of a query, the next pages are searched after them and not cached
+    public TopDocs getResults(IndexSearcher searcher, Query query, Sort sort, int nHits, Search search) throws IOException {
+        IndexReader reader = searcher.getIndexReader();
+
+        // the version tells the readers of an index apart, other readers are not cached
+        if (!(reader instanceof DirectoryReader))
+            return search.run();
+
+        ResultKey key = new ResultKey(query, sort, nHits, ((DirectoryReader) reader).getVersion());
+
+        synchronized (results) {
+            TopDocs topDocs = results.get(key);
+
+            if (topDocs != null) {
+                metrics.count("cache.results.hits");
+                return topDocs;
+            }
+        }
+
+        metrics.count("cache.results.misses");
+        TopDocs topDocs = search.run();
+
+        synchronized (results) {
+            results.put(key, topDocs);
+        }
+
+        return topDocs;
+    }
+
+    private static <K, V> Map<K, V> lru(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+}
@@ -0,0 +1,47 @@
+package cli.daemon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+
+/**
+ * Thin client: forwards the queries to a running daemon and copies its answers to stdout.
+ */
+public class DaemonClient {
+    private final int port;
+    private final Path tokenFile;
+
+    public DaemonClient(int port, Path tokenFile) {
+        this.port = port;
+        this.tokenFile = tokenFile;
+    }
+
+    public void send(String[] queries, boolean isExpression) throws IOException {
+        String token = DaemonToken.read(tokenFile);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            out.write(DaemonProtocol.encodeToken(token));
+            out.write('\n');
+
+            for (String query : queries) {
+                out.write(DaemonProtocol.encode(query, isExpression));
+                out.write('\n');
+            }
+
+            out.flush();
+            // tells the daemon that no more queries follow
+            socket.shutdownOutput();
+
+            InputStream in = socket.getInputStream();
+            in.transferTo(System.out);
+            System.out.flush();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package cli.daemon;
+
+
+/**
+ * Line based protocol spoken between the daemon and its clients over a loopback socket.
+ * A client first sends the daemon token ({@link DaemonToken}): the token kind, a tab and the token, then one
+ * request per line: the query kind, a tab and the query. For every request the daemon answers with the exact
+ * text {@link cli.utils.PrettyPrint#printMatches} prints, so any line oriented tool can act as a client, e.g.
+ * {@code printf 't\t%s\nq\tquery\n' "$(cat ~/.lfind/indexes/daemon-7341.token)" | nc 127.0.0.1 7341}.
+ * A connection without the right token is answered with {@link #UNAUTHORIZED} and closed.
+ * The daemon closes the connection once the client has shut down its output and all answers are written.
+ */
+public class DaemonProtocol {
+    public static final int DEFAULT_PORT = 7341;
+
+    public static final String QUERY = "q";
+    public static final String EXPRESSION = "e";
+    public static final String TOKEN = "t";
+    public static final String UNAUTHORIZED = "Unauthorized: wrong or missing daemon token";
+    public static final String SEPARATOR = "\t";
+
+    public static String encodeToken(String token) {
+        return TOKEN + SEPARATOR + token;
+    }
+
+    public static String encode(String query, boolean isExpression) {
+        // queries are single lines, tabs and line breaks carry no meaning for the whitespace analyzer
+        return (isExpression? EXPRESSION: QUERY) + SEPARATOR + query.replaceAll("[\\t\\r\\n]", " ");
+    }
+}
@@ -0,0 +1,74 @@
+package cli.daemon;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import static cli.config.GlobalLogger.log;
+
+
+/**
+ * The secret a client shows before its queries: the loopback port is open to every user of the machine, the
+ * token file only to the one who started the daemon (mode 0600, in the cache directory). A new token is drawn
+ * each time a daemon starts, and its file is removed when it stops.
+ */
+public class DaemonToken {
+    private static final int TOKEN_BYTES = 32;
+
+    private DaemonToken() {}
+
+    // one file per port, daemons on other ports have their own
+    public static Path fileFor(Path cacheDir, int port) {
+        return cacheDir.resolve("daemon-" + port + ".token");
+    }
+
+    // replaces the token of a daemon that did not stop cleanly
+    public static String create(Path file) throws IOException {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        String token = String.format("%0" + 2 * TOKEN_BYTES + "x", new BigInteger(1, bytes));
+
+        Files.createDirectories(file.getParent());
+        Files.deleteIfExists(file);
+
+        // readable by its owner only from the start, never for a moment by anyone else
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+            log.info("no posix permissions, the daemon token is as readable as its directory: " + file);
+        }
+
+        Files.writeString(file, token, StandardCharsets.UTF_8);
+
+        return token;
+    }
+
+    public static String read(Path file) throws IOException {
+        try {
+            return Files.readString(file, StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            throw new IOException("no daemon token at " + file + ", is the daemon running (with the same --cache-dir)?");
+        }
+    }
+
+    public static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.severe("could not remove the daemon token: " + file + " | " + e.getMessage());
+        }
+    }
+
+    // in constant time, the comparison tells nothing about how much of the token was right
+    public static boolean matches(String token, String given) {
+        return given != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8));
+    }
+}
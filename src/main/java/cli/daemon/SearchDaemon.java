@@ -0,0 +1,151 @@
+package cli.daemon;
+
+import cli.core.searchers.ISearcher;
+import cli.utils.PrettyPrint;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static cli.config.GlobalLogger.log;
+
+
+/**
+ * Keeps a searcher (and its open index) resident and answers queries sent over a loopback socket,
+ * so that repeated searches skip the JVM startup, the parser class loading and the indexing.
+ * Only the clients that show the token of the daemon are answered, see {@link DaemonToken}.
+ */
+public class SearchDaemon {
+    private static final int N_CONNECTION_THREADS = 4;
+    // a client that does not show its token at once, or goes quiet, gives its thread back to the others
+    private static final int TOKEN_TIMEOUT_MILLIS = 2_000;
+    private static final int IDLE_TIMEOUT_MILLIS = 60_000;
+    // the token and its kind, with room to spare
+    private static final int MAX_TOKEN_LINE = 256;
+
+    private final ISearcher searcher;
+    private final int port;
+    private final Path tokenFile;
+    private volatile String token;
+
+    public SearchDaemon(ISearcher searcher, int port, Path tokenFile) {
+        this.searcher = searcher;
+        this.port = port;
+        this.tokenFile = tokenFile;
+    }
+
+    public void serve() throws IOException {
+        // the searchers are safe to query concurrently
+        ExecutorService connections = Executors.newFixedThreadPool(N_CONNECTION_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "lfind-daemon");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // loopback only, the daemon must not be reachable from other machines
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            // once the port is ours: a daemon that failed to start leaves the token of the running one alone
+            token = DaemonToken.create(tokenFile);
+            log.info("daemon token: " + tokenFile);
+
+            System.out.println("lfind daemon listening on " + server.getLocalSocketAddress() + ". Press Ctrl+C to stop.");
+
+            while (!server.isClosed()) {
+                Socket socket = server.accept();
+                connections.submit(() -> handle(socket));
+            }
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(socket.getOutputStream(), false, StandardCharsets.UTF_8)) {
+            socket.setSoTimeout(TOKEN_TIMEOUT_MILLIS);
+            String request = readTokenLine(in);
+
+            if (!isAuthorized(request)) {
+                log.severe("connection refused, wrong or missing token");
+                out.println(DaemonProtocol.UNAUTHORIZED);
+                return;
+            }
+
+            socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+
+            while ((request = in.readLine()) != null) {
+                if (request.isBlank())
+                    continue;
+
+                answer(request, out);
+                out.flush();
+            }
+        } catch (SocketTimeoutException e) {
+            log.info("connection closed, no request within the timeout");
+        } catch (IOException e) {
+            log.severe("connection failed: " + e.getMessage());
+        }
+    }
+
+    // the first line, without reading an unbounded one from a client that is not known yet; null if too long
+    private static String readTokenLine(BufferedReader in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+
+        while ((c = in.read()) >= 0 && c != '\n') {
+            if (line.length() == MAX_TOKEN_LINE)
+                return null;
+
+            line.append((char) c);
+        }
+
+        return c < 0 && line.length() == 0? null: line.toString();
+    }
+
+    // a daemon that never got its port has no token, the file is then the one of another daemon
+    public void removeToken() {
+        if (token != null)
+            DaemonToken.delete(tokenFile);
+    }
+
+    // the first line of a connection
+    private boolean isAuthorized(String request) {
+        String prefix = DaemonProtocol.TOKEN + DaemonProtocol.SEPARATOR;
+
+        return request != null && request.startsWith(prefix) && DaemonToken.matches(token, request.substring(prefix.length()).trim());
+    }
+
+    private void answer(String request, PrintStream out) {
+        int separator = request.indexOf(DaemonProtocol.SEPARATOR);
+
+        // a bare line is a plain query
+        String kind = separator < 0? DaemonProtocol.QUERY: request.substring(0, separator);
+        String query = separator < 0? request.trim(): request.substring(separator + 1).trim();
+
+        log.info("daemon query: " + query + " | kind: " + kind);
+
+        // matches are written to the socket as they are loaded
+        PrettyPrint.MatchPrinter printer = new PrettyPrint.MatchPrinter(out, query, 1);
+
+        try {
+            searcher.streamMatches(query, DaemonProtocol.EXPRESSION.equals(kind), null, 0, Integer.MAX_VALUE, printer);
+        } catch (Exception e) {
+            printer.printError(e);
+
+            Arrays.stream(e.getStackTrace()).forEach(st -> log.info(st.toString()));
+        }
+
+        printer.printEnd();
+    }
+}
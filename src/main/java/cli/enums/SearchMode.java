@@ -3,5 +3,7 @@ package cli.enums;
 public enum SearchMode {
     FILE_CONTENT,
     FILE_METADATA,
+    // names and content in one index
+    COMBINED,
     PIPED_INPUT
 }
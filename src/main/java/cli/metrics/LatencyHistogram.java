@@ -0,0 +1,84 @@
+package cli.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Latencies in microseconds, counted in log-linear buckets: every power of two is split in 8, so a percentile
+ * is within 12.5% of the exact value whatever the range, in a fixed few kilobytes. Lock free.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int N_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(N_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    // the time since start, as taken from System.nanoTime()
+    public void stop(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public void record(long micros) {
+        long value = Math.max(micros, 0);
+
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        maxMicros.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMaxMillis() {
+        return maxMicros.get() / 1e3;
+    }
+
+    /**
+     * @param quantile e.g. 0.99
+     * @return the upper bound of the bucket holding the quantile, 0 if nothing was recorded
+     */
+    public double getPercentileMillis(double quantile) {
+        long total = 0;
+        for (int i = 0; i < N_BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+
+        for (int i = 0; i < N_BUCKETS; i++) {
+            seen += buckets.get(i);
+
+            if (seen >= rank)
+                return Math.min(lowerBound(i + 1) - 1, maxMicros.get()) / 1e3;
+        }
+
+        return 0;
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+}
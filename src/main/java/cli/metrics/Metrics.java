@@ -0,0 +1,162 @@
+package cli.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static cli.config.GlobalLogger.log;
+
+
+/**
+ * Where the time goes and what happens to the files, for the whole process: timers of the indexing phases, file
+ * counters and query latency histograms, created by name on first use. Callers on a hot path keep the timer
+ * they get rather than looking it up every time. Read over JMX, or printed as JSON at exit (--stats).
+ */
+public class Metrics implements MetricsMXBean {
+    public static final Metrics metrics = new Metrics();
+
+    private static final String OBJECT_NAME = "cli.metrics:type=Metrics";
+    private static final Map<String, Double> PERCENTILES = new TreeMap<>(Map.of("p50", 0.5, "p90", 0.9, "p99", 0.99));
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    public void count(String name) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    // once per process, failing only costs the JMX view
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+
+            if (!server.isRegistered(name))
+                server.registerMBean(this, name);
+        } catch (JMException e) {
+            log.warning("metrics not registered over JMX: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        return sorted(counters, LongAdder::sum);
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMillis() {
+        return sorted(timers, Timer::getTotalMillis);
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCounts() {
+        return sorted(timers, Timer::getCount);
+    }
+
+    @Override
+    public Map<String, Double> getLatencyMillis() {
+        Map<String, Double> latencies = new TreeMap<>();
+
+        histograms.forEach((name, histogram) -> {
+            PERCENTILES.forEach((percentile, quantile) ->
+                    latencies.put(name + "." + percentile, histogram.getPercentileMillis(quantile)));
+
+            latencies.put(name + ".max", histogram.getMaxMillis());
+        });
+
+        return latencies;
+    }
+
+    /**
+     * The sum of the peaks of the heap pools. They do not peak at the same time, so it is an upper bound of the
+     * peak of the heap, but a close one: the old generation is most of it.
+     */
+    @Override
+    public long getPeakHeapBytes() {
+        long peak = 0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+                peak += pool.getPeakUsage().getUsed();
+        }
+
+        return peak;
+    }
+
+    @Override
+    public String getJson() {
+        StringBuilder json = new StringBuilder("{\n");
+
+        json.append("  \"phases\": {");
+        appendEntries(json, sorted(timers, Function.identity()), (out, timer) -> out
+                .append("{\"count\": ").append(timer.getCount())
+                .append(", \"totalMillis\": ").append(format(timer.getTotalMillis()))
+                .append(", \"maxMillis\": ").append(format(timer.getMaxMillis())).append('}'));
+        json.append("},\n");
+
+        json.append("  \"counters\": {");
+        appendEntries(json, getCounters(), StringBuilder::append);
+        json.append("},\n");
+
+        json.append("  \"latencies\": {");
+        appendEntries(json, sorted(histograms, Function.identity()), (out, histogram) -> {
+            out.append("{\"count\": ").append(histogram.getCount());
+
+            PERCENTILES.forEach((percentile, quantile) -> out
+                    .append(", \"").append(percentile).append("Millis\": ")
+                    .append(format(histogram.getPercentileMillis(quantile))));
+
+            out.append(", \"maxMillis\": ").append(format(histogram.getMaxMillis())).append('}');
+        });
+        json.append("},\n");
+
+        json.append("  \"peakHeapBytes\": ").append(getPeakHeapBytes()).append("\n}");
+
+        return json.toString();
+    }
+
+    private static <V> void appendEntries(StringBuilder json, Map<String, V> entries, BiConsumer<StringBuilder, V> value) {
+        String separator = "\n    ";
+
+        for (Map.Entry<String, V> entry : entries.entrySet()) {
+            // names are ours: no quotes or backslashes to escape
+            json.append(separator).append('"').append(entry.getKey()).append("\": ");
+            value.accept(json, entry.getValue());
+            separator = ",\n    ";
+        }
+
+        if (!entries.isEmpty())
+            json.append("\n  ");
+    }
+
+    private static <V, R> Map<String, R> sorted(Map<String, V> map, Function<V, R> value) {
+        Map<String, R> sorted = new TreeMap<>();
+        map.forEach((name, metric) -> sorted.put(name, value.apply(metric)));
+        return sorted;
+    }
+
+    private static String format(double millis) {
+        return String.format(Locale.ROOT, "%.3f", millis);
+    }
+}
@@ -0,0 +1,25 @@
+package cli.metrics;
+
+import java.util.Map;
+
+
+/**
+ * What {@link Metrics} shows over JMX (e.g. in jconsole, under "cli.metrics"), while lfind runs.
+ */
+public interface MetricsMXBean {
+    // skipped, failed... files by outcome
+    Map<String, Long> getCounters();
+
+    // total time spent per phase
+    Map<String, Double> getPhaseMillis();
+
+    Map<String, Long> getPhaseCounts();
+
+    // e.g. "query.search.p99"
+    Map<String, Double> getLatencyMillis();
+
+    long getPeakHeapBytes();
+
+    // all of the above, as --stats prints it
+    String getJson();
+}
@@ -2,9 +2,12 @@ package cli.utils;
 
 import lombok.SneakyThrows;
 
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 
 public class FileUtils {
     @SneakyThrows
@@ -12,6 +15,21 @@ public class FileUtils {
         return Files.createTempDirectory("lfind-index");
     }
 
+    public static Path getDefaultCacheDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".lfind", "indexes");
+    }
+
+    // one directory per key (root path, search mode, ...) inside the cache directory
+    @SneakyThrows
+    public static Path createPersistentIndexDirectory(Path cacheDir, String key) {
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+        Path indexDir = cacheDir.resolve(String.format("%040x", new BigInteger(1, digest)));
+
+        Files.createDirectories(indexDir);
+
+        return indexDir;
+    }
+
     @SneakyThrows
     private static Path createFixedTempDirectory() {
         String tempDir = System.getProperty("java.io.tmpdir");
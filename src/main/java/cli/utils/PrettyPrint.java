@@ -1,30 +1,113 @@
 package cli.utils;
 
 
+import cli.core.searchers.MatchListener;
+
+import java.io.PrintStream;
+
 public class PrettyPrint {
     public static void printMatches(final String query, String[] matches) {
-        // Print the query
-        System.out.printf("Query: '%s'\n", query);
+        printMatches(System.out, query, matches);
+    }
+
+    public static void printMatches(PrintStream out, final String query, String[] matches) {
+        MatchPrinter printer = new MatchPrinter(out, query, 1);
 
         // Check if there are matches to print
         if (matches == null) {
-            System.out.println("Error Occured.");
-        }
-        else if (matches.length == 0) {
-            System.out.println("No matches found.");
+            printer.printError();
         } else {
-            // Header
-            System.out.printf("%d Match%s Found:\n", matches.length, matches.length == 1? "": "es");
-            int rank = 1;
+            printer.onStart(matches.length);
 
-            // Print each match with its rank and relevance
             for (String match : matches) {
-                // Assuming the match string contains the relevance score at the end
-                System.out.printf("%-6s %s%n", "[" + rank++ + "]", match);
+                printer.onMatch(match);
             }
         }
 
-        // Print a separator
-        System.out.println("---");
+        printer.printEnd();
+    }
+
+    /**
+     * Prints the matches as they are streamed from the index, in the same layout as {@link #printMatches}.
+     */
+    public static class MatchPrinter implements MatchListener {
+        private final PrintStream out;
+        private final int firstRank;
+        private int rank;
+        private long totalHits = -1;   // unknown until onStart/printCount
+
+        public MatchPrinter(PrintStream out, final String query, int firstRank) {
+            this.out = out;
+            this.firstRank = firstRank;
+            this.rank = firstRank;
+
+            // Print the query
+            out.printf("Query: '%s'\n", query);
+        }
+
+        @Override
+        public void onStart(long totalHits) {
+            this.totalHits = totalHits;
+
+            printCount(totalHits);
+        }
+
+        // for matches streamed before their number is known: the count goes after them
+        public void printStreamedCount() {
+            long nMatches = getLastRank() - firstRank + 1;
+
+            if (nMatches == 0)
+                printCount(nMatches);
+            else
+                out.printf("%d Match%s Found.\n", nMatches, nMatches == 1? "": "es");
+        }
+
+        private void printCount(long totalHits) {
+            if (totalHits == 0) {
+                out.println("No matches found.");
+            } else {
+                // Header
+                out.printf("%d Match%s Found:\n", totalHits, totalHits == 1? "": "es");
+            }
+        }
+
+        @Override
+        public void onMatch(String match) {
+            // Assuming the match string contains the relevance score at the end
+            out.printf("%-6s %s%n", "[" + rank++ + "]", match);
+        }
+
+        public void printError() {
+            out.println("Error Occured.");
+        }
+
+        // a query refused by the searcher is told why, other failures are in the log
+        public void printError(Exception e) {
+            if (e instanceof IllegalArgumentException)
+                out.println("Error Occured: " + e.getMessage());
+            else
+                printError();
+        }
+
+        // number of the last match printed
+        public int getLastRank() {
+            return rank - 1;
+        }
+
+        public boolean hasMore() {
+            return getLastRank() < totalHits;
+        }
+
+        public void printEnd() {
+            if (rank == firstRank && firstRank > 1)
+                out.println("No more matches.");
+
+            // only a part of the matches was printed
+            if (totalHits >= 0 && rank > firstRank && (firstRank > 1 || hasMore()))
+                out.printf("Showing matches %d-%d of %d\n", firstRank, getLastRank(), totalHits);
+
+            // Print a separator
+            out.println("---");
+        }
     }
 }